@@ -2,7 +2,29 @@ package com.francescoceliento.converter;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.format.SignStyle;
+import java.time.format.TextStyle;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.util.BitSet;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Manages date conversion.
@@ -10,6 +32,107 @@ import java.util.Date;
  *
  */
 public class DateConverter {
+
+    /**
+     * Value returned by the epoch-millis parsers when the text is not a valid date.
+     */
+    public static final long INVALID_TIME = Long.MIN_VALUE;
+
+    // RFC 822 / RFC 1123 senza giorno della settimana (spesso errato nei feed, viene rimosso prima del parsing).
+    // Anno a 2 o 4 cifre, secondi opzionali e offset numerico: i nomi di zona sono convertiti prima da RFC_822_ZONES.
+    private static final DateTimeFormatter RFC_822 = new DateTimeFormatterBuilder()
+            .parseCaseInsensitive()
+            .appendValue(ChronoField.DAY_OF_MONTH, 1, 2, SignStyle.NOT_NEGATIVE)
+            .appendLiteral(' ')
+            .appendText(ChronoField.MONTH_OF_YEAR, TextStyle.SHORT)
+            .appendLiteral(' ')
+            .appendValueReduced(ChronoField.YEAR, 2, 4, 1970)
+            .appendLiteral(' ')
+            .appendValue(ChronoField.HOUR_OF_DAY, 2)
+            .appendLiteral(':')
+            .appendValue(ChronoField.MINUTE_OF_HOUR, 2)
+            .optionalStart().appendLiteral(':').appendValue(ChronoField.SECOND_OF_MINUTE, 2).optionalEnd()
+            .appendLiteral(' ')
+            .appendOffset("+HHMM", "+0000")
+            .toFormatter(Locale.ENGLISH);
+
+    // Nomi di zona definiti da RFC 822 con il loro offset fisso: EST vale -0500 anche in luglio
+    private static final Map<String, String> RFC_822_ZONES = new HashMap<>();
+
+    static {
+        RFC_822_ZONES.put("UT", "+0000");
+        RFC_822_ZONES.put("GMT", "+0000");
+        RFC_822_ZONES.put("Z", "+0000");
+        RFC_822_ZONES.put("EST", "-0500");
+        RFC_822_ZONES.put("EDT", "-0400");
+        RFC_822_ZONES.put("CST", "-0600");
+        RFC_822_ZONES.put("CDT", "-0500");
+        RFC_822_ZONES.put("MST", "-0700");
+        RFC_822_ZONES.put("MDT", "-0600");
+        RFC_822_ZONES.put("PST", "-0800");
+        RFC_822_ZONES.put("PDT", "-0700");
+    }
+
+    // Limite dei formatter in cache: oltre, una voce viene eliminata prima di aggiungerne un'altra
+    private static final int MAX_CACHED_FORMATTERS = 256;
+    private static final int MAX_CACHED_SIMPLE_FORMATS = 16;
+
+    // DateTimeFormatter è immutabile: un'unica istanza per pattern condivisa da tutti i thread
+    private static final ConcurrentHashMap<String, DateTimeFormatter> FORMATTERS = new ConcurrentHashMap<>();
+
+    // SimpleDateFormat non è thread-safe: cache LRU per thread, per i metodi basati su java.util.Date
+    private static final ThreadLocal<LinkedHashMap<String, SimpleDateFormat>> SIMPLE_FORMATS = new ThreadLocal<LinkedHashMap<String, SimpleDateFormat>>() {
+        @Override
+        protected LinkedHashMap<String, SimpleDateFormat> initialValue() {
+            return new LinkedHashMap<String, SimpleDateFormat>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, SimpleDateFormat> eldest) {
+                    return size() > MAX_CACHED_SIMPLE_FORMATS;
+                }
+            };
+        }
+    };
+
+    /**
+     * Returns the DateTimeFormatter of the pattern, compiled once and shared.
+     * The returned formatter is immutable and thread-safe.
+     * @author @francescoceliento@github.com
+     *
+     * @param pattern
+     * @return DateTimeFormatter
+     * @throws IllegalArgumentException if the pattern is not valid
+     */
+    public static DateTimeFormatter formatter(String pattern) {
+        DateTimeFormatter formatter = FORMATTERS.get(pattern);
+        if (formatter == null) {
+            formatter = DateTimeFormatter.ofPattern(pattern);
+            if (FORMATTERS.size() >= MAX_CACHED_FORMATTERS) {
+                // cache piena: si libera una voce qualsiasi, i pattern ricorrenti rientrano subito
+                Iterator<String> keys = FORMATTERS.keySet().iterator();
+                if (keys.hasNext()) {
+                    FORMATTERS.remove(keys.next());
+                }
+            }
+            DateTimeFormatter previous = FORMATTERS.putIfAbsent(pattern, formatter);
+            if (previous != null) {
+                formatter = previous;
+            }
+        }
+        return formatter;
+    }
+
+    // SimpleDateFormat del thread corrente per il pattern, ricreato se la zona di default è cambiata
+    private static SimpleDateFormat simpleDateFormat(String pattern) {
+        LinkedHashMap<String, SimpleDateFormat> formats = SIMPLE_FORMATS.get();
+        SimpleDateFormat format = formats.get(pattern);
+        if (format == null || !format.getTimeZone().getID().equals(TimeZone.getDefault().getID())) {
+            format = new SimpleDateFormat(pattern);
+            formats.put(pattern, format);
+        }
+        return format;
+    }
 	
 	/**
 	 * Function to convert java.util.Date to String.
@@ -20,7 +143,7 @@ public class DateConverter {
 	 * @return
 	 */
     public static String dateToString(Date date, String pattern) {
-        SimpleDateFormat formatter = new SimpleDateFormat(pattern);
+        SimpleDateFormat formatter = simpleDateFormat(pattern);
         return formatter.format(date);
     }
 
@@ -34,7 +157,7 @@ public class DateConverter {
      * @throws ParseException
      */   
     public static Date stringToDateWithThrow(String dateString, String pattern) throws ParseException {
-        SimpleDateFormat formatter = new SimpleDateFormat(pattern);
+        SimpleDateFormat formatter = simpleDateFormat(pattern);
         return formatter.parse(dateString);
     }
     
@@ -47,7 +170,7 @@ public class DateConverter {
      * @return Date
      */
     public static Date stringToDate(String dateString, String pattern) {
-        SimpleDateFormat formatter = new SimpleDateFormat(pattern);
+        SimpleDateFormat formatter = simpleDateFormat(pattern);
         try {
             return formatter.parse(dateString);
         } catch (ParseException e) {
@@ -56,6 +179,202 @@ public class DateConverter {
         }
     }
 
-    
+    /**
+     * Parses an RFC 822 / RFC 1123 date (RSS pubDate, HTTP headers) into epoch milliseconds.
+     * The day of the week is ignored. The zone is a numeric offset or one of the RFC 822 names
+     * (UT, GMT, Z, EST, EDT, CST, CDT, MST, MDT, PST, PDT), each with its fixed offset.
+     * Returns INVALID_TIME if the text is not a valid date.
+     * @author @francescoceliento@github.com
+     *
+     * @param text e.g. "Mon, 01 Jan 2024 10:00:00 GMT"
+     * @return long
+     */
+    public static long parseRfc822(String text) {
+        if (text == null) {
+            return INVALID_TIME;
+        }
+        String value = text.trim();
+        int comma = value.indexOf(',');
+        if (comma >= 0) {
+            value = value.substring(comma + 1).trim();
+        }
+        int space = value.lastIndexOf(' ');
+        String offset = RFC_822_ZONES.get(value.substring(space + 1).toUpperCase(Locale.ROOT));
+        if (offset != null) {
+            value = value.substring(0, space + 1) + offset;
+        }
+        try {
+            return ZonedDateTime.from(RFC_822.parse(value)).toInstant().toEpochMilli();
+        } catch (DateTimeException e) {
+            return INVALID_TIME;
+        }
+    }
+
+    /**
+     * Parses an RFC 3339 / ISO 8601 date (Atom, Dublin Core) into epoch milliseconds.
+     * Dates without offset are taken as UTC. Returns INVALID_TIME if the text is not a valid date.
+     * @author @francescoceliento@github.com
+     *
+     * @param text e.g. "2024-01-01T10:00:00Z"
+     * @return long
+     */
+    public static long parseRfc3339(String text) {
+        if (text == null) {
+            return INVALID_TIME;
+        }
+        String value = text.trim();
+        try {
+            if (value.length() == 10) {
+                return LocalDate.parse(value).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+            }
+            TemporalAccessor parsed = DateTimeFormatter.ISO_DATE_TIME.parse(value);
+            if (parsed.isSupported(ChronoField.OFFSET_SECONDS)) {
+                return ZonedDateTime.from(parsed).toInstant().toEpochMilli();
+            }
+            return LocalDateTime.from(parsed).toInstant(ZoneOffset.UTC).toEpochMilli();
+        } catch (DateTimeException e) {
+            return INVALID_TIME;
+        }
+    }
+
+    /**
+     * Parses a date in RFC 3339 or RFC 822 format, choosing the format from the text.
+     * Returns INVALID_TIME if the text is not a valid date.
+     * @author @francescoceliento@github.com
+     *
+     * @param text
+     * @return long
+     */
+    public static long parseInternetDate(String text) {
+        if (text == null) {
+            return INVALID_TIME;
+        }
+        String value = text.trim();
+        // "yyyy-" all'inizio: formato ISO
+        if (value.length() >= 10 && value.charAt(4) == '-' && Character.isDigit(value.charAt(0))) {
+            return parseRfc3339(value);
+        }
+        return parseRfc822(value);
+    }
+
+    /**
+     * Function to convert java.time.Instant to String in the default time zone.
+     * @author @francescoceliento@github.com
+     *
+     * @param instant
+     * @param pattern
+     * @return String
+     */
+    public static String dateToString(Instant instant, String pattern) {
+        return dateToString(instant, pattern, ZoneId.systemDefault());
+    }
+
+    /**
+     * Function to convert java.time.Instant to String in the given time zone.
+     * @author @francescoceliento@github.com
+     *
+     * @param instant
+     * @param pattern
+     * @param zone
+     * @return String
+     */
+    public static String dateToString(Instant instant, String pattern, ZoneId zone) {
+        return formatter(pattern).withZone(zone).format(instant);
+    }
+
+    /**
+     * Function to convert java.time.LocalDateTime to String.
+     * @author @francescoceliento@github.com
+     *
+     * @param date
+     * @param pattern
+     * @return String
+     */
+    public static String dateToString(LocalDateTime date, String pattern) {
+        return formatter(pattern).format(date);
+    }
+
+    /**
+     * Function to convert java.time.ZonedDateTime to String.
+     * @author @francescoceliento@github.com
+     *
+     * @param date
+     * @param pattern
+     * @return String
+     */
+    public static String dateToString(ZonedDateTime date, String pattern) {
+        return formatter(pattern).format(date);
+    }
+
+    /**
+     * Function to convert String to java.time.LocalDateTime.
+     * @author @francescoceliento@github.com
+     *
+     * @param dateString
+     * @param pattern
+     * @return LocalDateTime
+     * @throws DateTimeParseException
+     */
+    public static LocalDateTime stringToLocalDateTime(String dateString, String pattern) throws DateTimeParseException {
+        return LocalDateTime.parse(dateString, formatter(pattern));
+    }
+
+    /**
+     * Function to convert String to java.time.ZonedDateTime. The pattern must contain a zone or an offset.
+     * @author @francescoceliento@github.com
+     *
+     * @param dateString
+     * @param pattern
+     * @return ZonedDateTime
+     * @throws DateTimeParseException
+     */
+    public static ZonedDateTime stringToZonedDateTime(String dateString, String pattern) throws DateTimeParseException {
+        return ZonedDateTime.parse(dateString, formatter(pattern));
+    }
+
+    /**
+     * Function to convert String to java.time.Instant. If the pattern has no zone or offset
+     * the date is taken in the default time zone.
+     * @author @francescoceliento@github.com
+     *
+     * @param dateString
+     * @param pattern
+     * @return Instant
+     * @throws DateTimeParseException
+     */
+    public static Instant stringToInstant(String dateString, String pattern) throws DateTimeParseException {
+        return ZonedDateTime.parse(dateString, formatter(pattern).withZone(ZoneId.systemDefault())).toInstant();
+    }
+
+    /**
+     * Appends the epoch-millis dates to the builder, separated by the separator.
+     * Fixed-width numeric patterns (e.g. "yyyy-MM-dd HH:mm:ss") skip the generic formatter.
+     * @author @francescoceliento@github.com
+     *
+     * @param epochMillis
+     * @param pattern
+     * @param zone
+     * @param separator
+     * @param out
+     * @return the same builder
+     */
+    public static StringBuilder formatEpochMillis(long[] epochMillis, String pattern, ZoneId zone, char separator, StringBuilder out) {
+        return EpochFormat.of(pattern, zone).formatAll(epochMillis, separator, out);
+    }
+
+    /**
+     * Parses a column of dates into epoch milliseconds. Values that cannot be parsed are set to
+     * INVALID_TIME and their index is set in the returned BitSet, empty if all values are valid.
+     * @author @francescoceliento@github.com
+     *
+     * @param texts
+     * @param pattern
+     * @param zone
+     * @param out array at least as long as texts
+     * @return BitSet of the indexes that failed
+     */
+    public static BitSet parseEpochMillis(CharSequence[] texts, String pattern, ZoneId zone, long[] out) {
+        return EpochFormat.of(pattern, zone).parseAll(texts, out);
+    }
 
 }
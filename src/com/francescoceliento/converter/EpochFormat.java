@@ -0,0 +1,484 @@
+package com.francescoceliento.converter;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.time.temporal.TemporalQueries;
+import java.time.zone.ZoneRules;
+import java.util.BitSet;
+
+/**
+ * Pattern and time zone compiled once to format and parse epoch milliseconds in bulk.
+ * Fixed-width numeric patterns (yyyy, MM, dd, HH, mm, ss, SSS and literal separators, e.g.
+ * "yyyy-MM-dd'T'HH:mm:ss.SSS") are handled by a dedicated path that writes and reads digits
+ * directly, without the generic formatter and without allocating; other patterns use the
+ * cached DateTimeFormatter of DateConverter. The fast path is used only for patterns with year,
+ * month and day, each once, and with time fields that do not skip a larger unit (e.g. "HH:ss"), so
+ * that it gives the same results as the generic path, including the SMART resolution of the
+ * formatter: a day past the end of the month is moved to the last day and 24:00 is the next midnight.
+ * Instances are immutable and thread-safe.
+ * @author @francescoceliento@github.com
+ */
+public final class EpochFormat {
+
+	// Operazioni del percorso veloce: campo numerico a larghezza fissa o carattere letterale
+	private static final int YEAR = -1;
+	private static final int MONTH = -2;
+	private static final int DAY = -3;
+	private static final int HOUR = -4;
+	private static final int MINUTE = -5;
+	private static final int SECOND = -6;
+	private static final int MILLI = -7;
+	// Anno "uuuu": prolettico, ammette l'anno 0 come il formatter generico
+	private static final int PROLEPTIC_YEAR = -8;
+
+	private static final long MILLIS_PER_DAY = 86400000L;
+
+	// Buffer per thread del percorso veloce verso StringBuilder
+	private static final ThreadLocal<char[]> SCRATCH = new ThreadLocal<char[]>() {
+		@Override
+		protected char[] initialValue() {
+			return new char[64];
+		}
+	};
+
+	private final String pattern;
+	private final ZoneId zone;
+	private final ZoneRules rules;
+	// Offset in secondi se la zona è fissa, altrimenti Integer.MIN_VALUE
+	private final int fixedOffset;
+	// Programma del percorso veloce (null se il pattern non è a larghezza fissa)
+	private final int[] program;
+	private final int width;
+	private final DateTimeFormatter formatter;
+
+	private EpochFormat(String pattern, ZoneId zone) {
+		this.pattern = pattern;
+		this.zone = zone;
+		this.rules = zone.getRules();
+		this.fixedOffset = rules.isFixedOffset() ? rules.getOffset(Instant.EPOCH).getTotalSeconds() : Integer.MIN_VALUE;
+		this.program = compile(pattern);
+		int length = 0;
+		if (program != null) {
+			for (int op : program) {
+				length += op >= 0 ? 1 : op == YEAR || op == PROLEPTIC_YEAR ? 4 : op == MILLI ? 3 : 2;
+			}
+		}
+		this.width = length;
+		this.formatter = DateConverter.formatter(pattern).withZone(zone);
+	}
+
+	/**
+	 * Compiles the pattern for the given time zone.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param pattern DateTimeFormatter pattern
+	 * @param zone
+	 * @return EpochFormat
+	 * @throws IllegalArgumentException if the pattern is not valid
+	 */
+	public static EpochFormat of(String pattern, ZoneId zone) {
+		if (pattern == null || zone == null) {
+			throw new IllegalArgumentException("Pattern and zone cannot be null.");
+		}
+		return new EpochFormat(pattern, zone);
+	}
+
+	/**
+	 * Compiles the pattern for UTC.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param pattern
+	 * @return EpochFormat
+	 */
+	public static EpochFormat utc(String pattern) {
+		return of(pattern, ZoneOffset.UTC);
+	}
+
+	public String getPattern() {
+		return pattern;
+	}
+
+	public ZoneId getZone() {
+		return zone;
+	}
+
+	/**
+	 * Returns true if the pattern uses the fixed-width fast path.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @return boolean
+	 */
+	public boolean isFixedWidth() {
+		return program != null;
+	}
+
+	/**
+	 * Appends the formatted date to the builder.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param epochMillis
+	 * @param out
+	 * @return the same builder
+	 */
+	public StringBuilder format(long epochMillis, StringBuilder out) {
+		if (program != null && inFastRange(epochMillis)) {
+			char[] scratch = SCRATCH.get();
+			return out.append(scratch, 0, format(epochMillis, scratch, 0));
+		}
+		formatter.formatTo(Instant.ofEpochMilli(epochMillis), out);
+		return out;
+	}
+
+	/**
+	 * Writes the formatted date into the array and returns the offset after the last character.
+	 * The array must have room for the formatted value.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param epochMillis
+	 * @param buffer
+	 * @param offset
+	 * @return int
+	 */
+	public int format(long epochMillis, char[] buffer, int offset) {
+		if (program != null && inFastRange(epochMillis)) {
+			long local = epochMillis + offsetMillis(epochMillis);
+			long days = Math.floorDiv(local, MILLIS_PER_DAY);
+			int millisOfDay = (int) Math.floorMod(local, MILLIS_PER_DAY);
+			long civil = civilFromDays(days);
+			int position = offset;
+			for (int op : program) {
+				switch (op) {
+					case YEAR:
+					case PROLEPTIC_YEAR:
+						position = digits(buffer, position, (int) (civil >> 9), 4);
+						break;
+					case MONTH:
+						position = digits(buffer, position, (int) (civil >> 5) & 0xF, 2);
+						break;
+					case DAY:
+						position = digits(buffer, position, (int) civil & 0x1F, 2);
+						break;
+					case HOUR:
+						position = digits(buffer, position, millisOfDay / 3600000, 2);
+						break;
+					case MINUTE:
+						position = digits(buffer, position, millisOfDay / 60000 % 60, 2);
+						break;
+					case SECOND:
+						position = digits(buffer, position, millisOfDay / 1000 % 60, 2);
+						break;
+					case MILLI:
+						position = digits(buffer, position, millisOfDay % 1000, 3);
+						break;
+					default:
+						buffer[position++] = (char) op;
+						break;
+				}
+			}
+			return position;
+		}
+		String text = formatter.format(Instant.ofEpochMilli(epochMillis));
+		text.getChars(0, text.length(), buffer, offset);
+		return offset + text.length();
+	}
+
+	/**
+	 * Appends all the dates to the builder, separated by the separator.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param epochMillis
+	 * @param separator
+	 * @param out
+	 * @return the same builder
+	 */
+	public StringBuilder formatAll(long[] epochMillis, char separator, StringBuilder out) {
+		if (program != null) {
+			out.ensureCapacity(out.length() + epochMillis.length * (width + 1));
+		}
+		for (int i = 0; i < epochMillis.length; i++) {
+			if (i > 0) {
+				out.append(separator);
+			}
+			format(epochMillis[i], out);
+		}
+		return out;
+	}
+
+	/**
+	 * Parses a date into epoch milliseconds. Returns DateConverter.INVALID_TIME if the text
+	 * does not match the pattern.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param text
+	 * @return long
+	 */
+	public long parse(CharSequence text) {
+		if (text == null) {
+			return DateConverter.INVALID_TIME;
+		}
+		if (program != null) {
+			return parseFixed(text);
+		}
+		try {
+			TemporalAccessor parsed = formatter.parse(text);
+			if (parsed.isSupported(ChronoField.INSTANT_SECONDS)) {
+				return Instant.from(parsed).toEpochMilli();
+			}
+			if (parsed.query(TemporalQueries.localTime()) == null) {
+				// pattern di sola data: inizio del giorno nella zona
+				return LocalDate.from(parsed).atStartOfDay(zone).toInstant().toEpochMilli();
+			}
+			return LocalDateTime.from(parsed).atZone(zone).toInstant().toEpochMilli();
+		} catch (DateTimeException e) {
+			return DateConverter.INVALID_TIME;
+		}
+	}
+
+	/**
+	 * Parses a column of dates into out (which must be at least as long as texts).
+	 * Values that cannot be parsed are set to DateConverter.INVALID_TIME and their index
+	 * is set in the returned BitSet, empty if all values are valid.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param texts
+	 * @param out
+	 * @return BitSet of the indexes that failed
+	 */
+	public BitSet parseAll(CharSequence[] texts, long[] out) {
+		if (out.length < texts.length) {
+			throw new IllegalArgumentException("The output array is shorter than the input.");
+		}
+		BitSet failures = new BitSet();
+		for (int i = 0; i < texts.length; i++) {
+			long value = parse(texts[i]);
+			out[i] = value;
+			if (value == DateConverter.INVALID_TIME) {
+				failures.set(i);
+			}
+		}
+		return failures;
+	}
+
+	// Percorso veloce del parsing: cifre e separatori nelle posizioni fisse del pattern
+	private long parseFixed(CharSequence text) {
+		if (text.length() != width) {
+			return DateConverter.INVALID_TIME;
+		}
+		int year = 1970;
+		int minYear = 1;
+		int month = 1;
+		int day = 1;
+		int hour = 0;
+		int minute = 0;
+		int second = 0;
+		int milli = 0;
+		int position = 0;
+		for (int op : program) {
+			int value;
+			switch (op) {
+				case YEAR:
+				case PROLEPTIC_YEAR:
+					minYear = op == PROLEPTIC_YEAR ? 0 : 1;
+					value = year = number(text, position, 4);
+					position += 4;
+					break;
+				case MILLI:
+					value = milli = number(text, position, 3);
+					position += 3;
+					break;
+				case MONTH:
+					value = month = number(text, position, 2);
+					position += 2;
+					break;
+				case DAY:
+					value = day = number(text, position, 2);
+					position += 2;
+					break;
+				case HOUR:
+					value = hour = number(text, position, 2);
+					position += 2;
+					break;
+				case MINUTE:
+					value = minute = number(text, position, 2);
+					position += 2;
+					break;
+				case SECOND:
+					value = second = number(text, position, 2);
+					position += 2;
+					break;
+				default:
+					value = text.charAt(position++) == op ? 0 : -1;
+					break;
+			}
+			if (value < 0) {
+				return DateConverter.INVALID_TIME;
+			}
+		}
+		if (year < minYear || month < 1 || month > 12 || day < 1 || day > 31 || hour > 24 || minute > 59 || second > 59) {
+			return DateConverter.INVALID_TIME;
+		}
+		// Risoluzione SMART come nel formatter generico: giorno oltre la fine del mese portato all'ultimo,
+		// 24:00 (solo con minuti, secondi e millisecondi a zero) è la mezzanotte del giorno dopo
+		day = Math.min(day, lengthOfMonth(year, month));
+		int extraDays = 0;
+		if (hour == 24) {
+			if (minute != 0 || second != 0 || milli != 0) {
+				return DateConverter.INVALID_TIME;
+			}
+			hour = 0;
+			extraDays = 1;
+		}
+		long local = (daysFromCivil(year, month, day) + extraDays) * MILLIS_PER_DAY + hour * 3600000L + minute * 60000L + second * 1000L + milli;
+		if (fixedOffset != Integer.MIN_VALUE) {
+			return local - fixedOffset * 1000L;
+		}
+		// Zona con ora legale: le regole decidono l'offset (anche per buchi e sovrapposizioni)
+		return LocalDateTime.of(year, month, day, hour, minute, second, milli * 1000000).plusDays(extraDays)
+				.atZone(zone).toInstant().toEpochMilli();
+	}
+
+	private long offsetMillis(long epochMillis) {
+		if (fixedOffset != Integer.MIN_VALUE) {
+			return fixedOffset * 1000L;
+		}
+		return rules.getOffset(Instant.ofEpochMilli(epochMillis)).getTotalSeconds() * 1000L;
+	}
+
+	// Anni 0001-9999 con qualsiasi offset: oltre si passa al formatter generico
+	private static boolean inFastRange(long epochMillis) {
+		return epochMillis >= -62135510400000L && epochMillis < 253402214400000L;
+	}
+
+	// Traduce il pattern in operazioni a larghezza fissa, null se contiene altro o se il risultato
+	// potrebbe differire dal formatter generico (data incompleta, campi ripetuti, ore senza minuti prima dei secondi...)
+	private static int[] compile(String pattern) {
+		int[] ops = new int[pattern.length()];
+		int count = 0;
+		int i = 0;
+		int fields = 0;
+		while (i < pattern.length()) {
+			char c = pattern.charAt(i);
+			int run = 1;
+			while (i + run < pattern.length() && pattern.charAt(i + run) == c) {
+				run++;
+			}
+			if (c == '\'') {
+				// letterale tra apici: un solo carattere, es. 'T' o 'Z'
+				if (i + 2 < pattern.length() && pattern.charAt(i + 1) != '\'' && pattern.charAt(i + 2) == '\'') {
+					ops[count++] = pattern.charAt(i + 1);
+					i += 3;
+					continue;
+				}
+				return null;
+			}
+			int op;
+			if ((c == 'y' || c == 'u') && run == 4) {
+				op = c == 'u' ? PROLEPTIC_YEAR : YEAR;
+			} else if (c == 'M' && run == 2) {
+				op = MONTH;
+			} else if (c == 'd' && run == 2) {
+				op = DAY;
+			} else if (c == 'H' && run == 2) {
+				op = HOUR;
+			} else if (c == 'm' && run == 2) {
+				op = MINUTE;
+			} else if (c == 's' && run == 2) {
+				op = SECOND;
+			} else if (c == 'S' && run == 3) {
+				op = MILLI;
+			} else if (run == 1 && (c == '-' || c == ':' || c == '.' || c == ' ' || c == '/' || c == ',' || c == '_')) {
+				op = c;
+			} else {
+				return null;
+			}
+			if (op < 0) {
+				// un bit per campo, YEAR e PROLEPTIC_YEAR sullo stesso
+				int field = 1 << (op == PROLEPTIC_YEAR ? -YEAR : -op);
+				if ((fields & field) != 0) {
+					return null;
+				}
+				fields |= field;
+			}
+			ops[count++] = op;
+			i += run;
+		}
+		if (!hasFields(fields, YEAR, MONTH, DAY)
+				|| (hasFields(fields, MINUTE) && !hasFields(fields, HOUR))
+				|| (hasFields(fields, SECOND) && !hasFields(fields, MINUTE))
+				|| (hasFields(fields, MILLI) && !hasFields(fields, SECOND))) {
+			return null;
+		}
+		int[] program = new int[count];
+		System.arraycopy(ops, 0, program, 0, count);
+		return program;
+	}
+
+	private static boolean hasFields(int fields, int... ops) {
+		for (int op : ops) {
+			if ((fields & 1 << -op) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int digits(char[] out, int position, int value, int width) {
+		for (int i = position + width - 1; i >= position; i--) {
+			out[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+		return position + width;
+	}
+
+	// Numero di cifre ASCII fisse, -1 se contiene altro
+	private static int number(CharSequence text, int position, int width) {
+		int value = 0;
+		for (int i = position; i < position + width; i++) {
+			int digit = text.charAt(i) - '0';
+			if (digit < 0 || digit > 9) {
+				return -1;
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	private static int lengthOfMonth(int year, int month) {
+		if (month == 2) {
+			return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+		}
+		return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+	}
+
+	// Giorni dal 1970-01-01 alla data (algoritmo days_from_civil di H. Hinnant)
+	private static long daysFromCivil(int year, int month, int day) {
+		long y = month <= 2 ? year - 1 : year;
+		long era = Math.floorDiv(y, 400);
+		long yearOfEra = y - era * 400;
+		long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+	// Data dai giorni dal 1970-01-01 (civil_from_days), impacchettata come anno << 9 | mese << 5 | giorno
+	private static long civilFromDays(long days) {
+		long z = days + 719468;
+		long era = Math.floorDiv(z, 146097);
+		long dayOfEra = z - era * 146097;
+		long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		long mp = (5 * dayOfYear + 2) / 153;
+		long day = dayOfYear - (153 * mp + 2) / 5 + 1;
+		long month = mp < 10 ? mp + 3 : mp - 9;
+		long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+		return year << 9 | month << 5 | day;
+	}
+
+}
@@ -1,7 +1,16 @@
 package com.francescoceliento.io;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Class for reading data from JSON.
@@ -18,66 +27,76 @@ public class JsonIO {
 	 * @return List<String>
 	 */
 	public static List<String> readKeys(String json, String key) {
-        List<String> values = new ArrayList<>();
-        String searchKey = "\"" + key + "\":";
-        int startIndex = 0;
+		Map<String, List<String>> values = new HashMap<>();
+		values.put(key, new ArrayList<String>());
+		if (json != null) {
+			try {
+				collect(new JsonTokenizer(new StringReader(json)), values);
+			} catch (IOException e) {
+				// JSON malformato: restituisce i valori letti fino al punto dell'errore
+			}
+		}
+		return values.get(key);
+	}
 
-        while (startIndex < json.length()) {
-            int keyIndex = json.indexOf(searchKey, startIndex);
-
-            if (keyIndex == -1) {
-                break;
-            }
-
-            int valueStart = keyIndex + searchKey.length();
-
-            int valueEnd;
-
-            if (json.charAt(valueStart) == '"') {
-                valueStart++;
-                valueEnd = json.indexOf('"', valueStart);
-            }
-            else {
-                int commaIndex = json.indexOf(',', valueStart);
-                int braceIndex = json.indexOf('}', valueStart);
-                int bracketIndex = json.indexOf(']', valueStart);
-                
-                valueEnd = json.length();
-                if (commaIndex != -1) {
-                    valueEnd = Math.min(valueEnd, commaIndex);
-                }
-                if (braceIndex != -1) {
-                    valueEnd = Math.min(valueEnd, braceIndex);
-                }
-                if (bracketIndex != -1) {
-                     valueEnd = Math.min(valueEnd, bracketIndex);
-                }
-
-                if (valueEnd == json.length()) {
-                    valueEnd = json.indexOf('}', valueStart);
-                    if (valueEnd == -1) valueEnd = json.length();
-                }
-
-                while (valueStart < valueEnd && Character.isWhitespace(json.charAt(valueStart))) {
-                    valueStart++;
-                }
-
-            }
-
-
-            if (valueEnd == -1 || valueStart >= valueEnd) {
-                startIndex = keyIndex + searchKey.length();
-                continue;
-            }
-
-            String value = json.substring(valueStart, valueEnd).trim();
-            values.add(value);
-
-            startIndex = valueEnd + 1;
-        }
+	/**
+	 * Reads the document in a single pass and returns, for each requested key, the list of
+	 * scalar values found at any nesting level. Object and array values are not collected,
+	 * but their content is still scanned.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param reader
+	 * @param keys
+	 * @return Map<String, List<String>>
+	 * @throws IOException
+	 */
+	public static Map<String, List<String>> readKeys(Reader reader, String... keys) throws IOException {
+		Map<String, List<String>> values = new LinkedHashMap<>();
+		for (String key : keys) {
+			values.put(key, new ArrayList<String>());
+		}
+		collect(new JsonTokenizer(reader), values);
+		return values;
+	}
 
-        return values;
-    }
+	/**
+	 * Reads the UTF-8 document in a single pass and returns, for each requested key, the list of
+	 * scalar values found at any nesting level.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param inputStream
+	 * @param keys
+	 * @return Map<String, List<String>>
+	 * @throws IOException
+	 */
+	public static Map<String, List<String>> readKeys(InputStream inputStream, String... keys) throws IOException {
+		return readKeys(new InputStreamReader(inputStream, StandardCharsets.UTF_8), keys);
+	}
+
+	// Scorre i token una sola volta raccogliendo i valori scalari delle chiavi richieste
+	private static void collect(JsonTokenizer tokenizer, Map<String, List<String>> values) throws IOException {
+		List<String> target = null;
+		JsonTokenizer.Token token;
+		while ((token = tokenizer.next()) != JsonTokenizer.Token.END_DOCUMENT) {
+			switch (token) {
+				case NAME:
+					target = values.get(tokenizer.getText());
+					break;
+				case STRING:
+				case NUMBER:
+				case BOOLEAN:
+				case NULL:
+					if (target != null) {
+						target.add(tokenizer.getText());
+					}
+					target = null;
+					break;
+				default:
+					target = null;
+					break;
+			}
+		}
+	}
 	
 	/**
 	 * Returns the value that match the key.
@@ -0,0 +1,457 @@
+package com.francescoceliento.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Single-pass pull tokenizer for JSON documents read from a Reader or InputStream.
+ * The document is never held in memory: only the text of the current token is buffered.
+ * @author @francescoceliento@github.com
+ *
+ */
+public class JsonTokenizer implements Closeable {
+
+	/**
+	 * Tokens returned by {@link JsonTokenizer#next()}.
+	 */
+	public enum Token {
+		BEGIN_OBJECT,
+		END_OBJECT,
+		BEGIN_ARRAY,
+		END_ARRAY,
+		NAME,
+		STRING,
+		NUMBER,
+		BOOLEAN,
+		NULL,
+		END_DOCUMENT
+	}
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final Reader reader;
+	private final char[] buffer = new char[BUFFER_SIZE];
+	private int position;
+	private int limit;
+	private long offset;
+
+	private final StringBuilder text = new StringBuilder(64);
+
+	// Stack dei contenitori aperti: true = oggetto, false = array
+	private boolean[] stack = new boolean[32];
+	private int depth;
+
+	// true quando il prossimo token di un oggetto deve essere un nome
+	private boolean expectName;
+	// true quando serve una virgola (o la chiusura) prima del prossimo valore
+	private boolean expectSeparator;
+	// true subito dopo '{' o '[', quando la chiusura immediata e' consentita
+	private boolean emptyContainer;
+
+	/**
+	 * Creates a tokenizer reading characters from the reader.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param reader
+	 */
+	public JsonTokenizer(Reader reader) {
+		if (reader == null) {
+			throw new IllegalArgumentException("The reader cannot be null.");
+		}
+		this.reader = reader;
+	}
+
+	/**
+	 * Creates a tokenizer reading UTF-8 bytes from the stream.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param inputStream
+	 */
+	public JsonTokenizer(InputStream inputStream) {
+		this(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Advances to the next token of the document.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @return Token
+	 * @throws IOException if the stream cannot be read or the JSON is malformed
+	 */
+	public Token next() throws IOException {
+		int c = nextNonWhitespace();
+
+		if (c == -1) {
+			if (depth > 0) {
+				throw syntaxError("Unexpected end of document");
+			}
+			return Token.END_DOCUMENT;
+		}
+
+		if (c == '}' || c == ']') {
+			boolean closingObject = c == '}';
+			if (depth == 0 || stack[depth - 1] != closingObject) {
+				throw syntaxError("Unexpected '" + (char) c + "'");
+			}
+			if (!expectSeparator && !emptyContainer) {
+				throw syntaxError("Trailing comma before '" + (char) c + "'");
+			}
+			depth--;
+			afterValue();
+			return closingObject ? Token.END_OBJECT : Token.END_ARRAY;
+		}
+
+		if (expectSeparator) {
+			if (depth == 0) {
+				throw syntaxError("Unexpected content after the root value");
+			}
+			if (c != ',') {
+				throw syntaxError("Expected ',' but found '" + (char) c + "'");
+			}
+			expectSeparator = false;
+			emptyContainer = false;
+			expectName = stack[depth - 1];
+			c = nextNonWhitespace();
+			if (c == -1) {
+				throw syntaxError("Unexpected end of document");
+			}
+		}
+
+		if (expectName) {
+			if (c != '"') {
+				throw syntaxError("Expected a property name");
+			}
+			readString();
+			if (nextNonWhitespace() != ':') {
+				throw syntaxError("Expected ':' after property name");
+			}
+			expectName = false;
+			emptyContainer = false;
+			return Token.NAME;
+		}
+
+		switch (c) {
+			case '{':
+				push(true);
+				expectName = true;
+				return Token.BEGIN_OBJECT;
+			case '[':
+				push(false);
+				return Token.BEGIN_ARRAY;
+			case '"':
+				readString();
+				afterValue();
+				return Token.STRING;
+			case 't':
+				readLiteral("true", c);
+				afterValue();
+				return Token.BOOLEAN;
+			case 'f':
+				readLiteral("false", c);
+				afterValue();
+				return Token.BOOLEAN;
+			case 'n':
+				readLiteral("null", c);
+				afterValue();
+				return Token.NULL;
+			default:
+				if (c == '-' || (c >= '0' && c <= '9')) {
+					readNumber(c);
+					afterValue();
+					return Token.NUMBER;
+				}
+				throw syntaxError("Unexpected character '" + (char) c + "'");
+		}
+	}
+
+	/**
+	 * Returns the text of the last NAME, STRING, NUMBER, BOOLEAN or NULL token.
+	 * String escapes are already decoded.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @return String
+	 */
+	public String getText() {
+		return text.toString();
+	}
+
+	/**
+	 * Returns the number of containers currently open.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @return int
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Skips the value that follows the last token: if it was a NAME, skips the whole
+	 * value of that property, if it was BEGIN_OBJECT or BEGIN_ARRAY skips to the matching end.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param last the token returned by the previous call to next()
+	 * @throws IOException
+	 */
+	public void skipValue(Token last) throws IOException {
+		int target;
+		if (last == Token.NAME) {
+			Token value = next();
+			if (value != Token.BEGIN_OBJECT && value != Token.BEGIN_ARRAY) {
+				return;
+			}
+			target = depth - 1;
+		} else if (last == Token.BEGIN_OBJECT || last == Token.BEGIN_ARRAY) {
+			target = depth - 1;
+		} else {
+			return;
+		}
+		while (depth > target) {
+			if (next() == Token.END_DOCUMENT) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of characters consumed so far.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @return long
+	 */
+	public long getOffset() {
+		return offset + position;
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+	private void push(boolean object) {
+		if (depth == stack.length) {
+			boolean[] grown = new boolean[depth * 2];
+			System.arraycopy(stack, 0, grown, 0, depth);
+			stack = grown;
+		}
+		stack[depth++] = object;
+		expectSeparator = false;
+		expectName = false;
+		emptyContainer = true;
+	}
+
+	private void afterValue() {
+		expectSeparator = true;
+		expectName = false;
+		emptyContainer = false;
+	}
+
+	private boolean fill() throws IOException {
+		offset += limit;
+		position = 0;
+		limit = 0;
+		int read;
+		while ((read = reader.read(buffer, 0, buffer.length)) == 0) {
+			// alcuni Reader possono restituire 0: riprova
+		}
+		if (read == -1) {
+			return false;
+		}
+		limit = read;
+		return true;
+	}
+
+	private int read() throws IOException {
+		if (position == limit && !fill()) {
+			return -1;
+		}
+		return buffer[position++];
+	}
+
+	private int nextNonWhitespace() throws IOException {
+		while (true) {
+			if (position == limit && !fill()) {
+				return -1;
+			}
+			char c = buffer[position++];
+			if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+				return c;
+			}
+		}
+	}
+
+	private void readString() throws IOException {
+		text.setLength(0);
+		while (true) {
+			// Copia a blocchi la porzione senza escape gia' presente nel buffer
+			int start = position;
+			while (position < limit) {
+				char c = buffer[position];
+				if (c == '"' || c == '\\') {
+					break;
+				}
+				if (c < 0x20) {
+					throw syntaxError("Unescaped control character in string");
+				}
+				position++;
+			}
+			text.append(buffer, start, position - start);
+
+			int c = read();
+			if (c == -1) {
+				throw syntaxError("Unterminated string");
+			}
+			if (c == '"') {
+				return;
+			}
+			if (c == '\\') {
+				readEscape();
+			} else {
+				// Il buffer era esaurito: il carattere letto appartiene alla stringa
+				position--;
+			}
+		}
+	}
+
+	private void readEscape() throws IOException {
+		int c = read();
+		switch (c) {
+			case '"': text.append('"'); break;
+			case '\\': text.append('\\'); break;
+			case '/': text.append('/'); break;
+			case 'b': text.append('\b'); break;
+			case 'f': text.append('\f'); break;
+			case 'n': text.append('\n'); break;
+			case 'r': text.append('\r'); break;
+			case 't': text.append('\t'); break;
+			case 'u':
+				int value = 0;
+				for (int i = 0; i < 4; i++) {
+					int h = read();
+					int digit = Character.digit(h, 16);
+					if (h == -1 || digit == -1) {
+						throw syntaxError("Invalid unicode escape");
+					}
+					value = (value << 4) | digit;
+				}
+				text.append((char) value);
+				break;
+			default:
+				throw syntaxError("Invalid escape sequence");
+		}
+	}
+
+	private void readLiteral(String literal, int first) throws IOException {
+		text.setLength(0);
+		text.append((char) first);
+		for (int i = 1; i < literal.length(); i++) {
+			int c = read();
+			if (c != literal.charAt(i)) {
+				throw syntaxError("Invalid literal, expected '" + literal + "'");
+			}
+			text.append((char) c);
+		}
+		checkDelimiter();
+	}
+
+	private void readNumber(int first) throws IOException {
+		text.setLength(0);
+		text.append((char) first);
+		while (true) {
+			if (position == limit && !fill()) {
+				break;
+			}
+			char c = buffer[position];
+			if ((c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+				text.append(c);
+				position++;
+			} else {
+				break;
+			}
+		}
+		if (!isValidNumber(text)) {
+			throw syntaxError("Invalid number '" + text + "'");
+		}
+		checkDelimiter();
+	}
+
+	// Grammatica JSON dei numeri: -? (0 | [1-9][0-9]*) (.[0-9]+)? ([eE][+-]?[0-9]+)?
+	private static boolean isValidNumber(CharSequence number) {
+		int length = number.length();
+		int i = 0;
+		if (i < length && number.charAt(i) == '-') {
+			i++;
+		}
+		if (i < length && number.charAt(i) == '0') {
+			i++;
+		} else {
+			int start = i;
+			i = skipDigits(number, i);
+			if (i == start) {
+				return false;
+			}
+		}
+		if (i < length && number.charAt(i) == '.') {
+			int start = ++i;
+			i = skipDigits(number, i);
+			if (i == start) {
+				return false;
+			}
+		}
+		if (i < length && (number.charAt(i) == 'e' || number.charAt(i) == 'E')) {
+			i++;
+			if (i < length && (number.charAt(i) == '+' || number.charAt(i) == '-')) {
+				i++;
+			}
+			int start = i;
+			i = skipDigits(number, i);
+			if (i == start) {
+				return false;
+			}
+		}
+		return i == length;
+	}
+
+	private static int skipDigits(CharSequence number, int i) {
+		while (i < number.length() && number.charAt(i) >= '0' && number.charAt(i) <= '9') {
+			i++;
+		}
+		return i;
+	}
+
+	// Dopo un letterale o un numero deve seguire un delimitatore strutturale o uno spazio
+	private void checkDelimiter() throws IOException {
+		if (position == limit && !fill()) {
+			return;
+		}
+		char c = buffer[position];
+		if (c != ',' && c != '}' && c != ']' && c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+			throw syntaxError("Unexpected character '" + c + "'");
+		}
+	}
+
+	private IOException syntaxError(String message) {
+		return new JsonSyntaxException(message + " at offset " + Math.max(0, getOffset() - 1), Math.max(0, getOffset() - 1));
+	}
+
+	// Eccezione per JSON malformato, con la posizione dell'errore
+	public static class JsonSyntaxException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		private final long offset;
+
+		public JsonSyntaxException(String message, long offset) {
+			super(message);
+			this.offset = offset;
+		}
+
+		public long getOffset() {
+			return offset;
+		}
+	}
+
+}
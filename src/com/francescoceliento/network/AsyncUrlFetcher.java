@@ -0,0 +1,321 @@
+package com.francescoceliento.network;
+
+import java.io.Closeable;
+import java.lang.reflect.Method;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous URL fetcher with a global limit of requests in flight and a limit per host.
+ * Requests over the limits wait in a queue per host and are dispatched as soon as a slot is released,
+ * taking the hosts in turn.
+ * On JDK 21+ each request runs on a virtual thread, on older JDKs on a pool of daemon threads
+ * sized to the in-flight limit.
+ * @author @francescoceliento@github.com
+ */
+public class AsyncUrlFetcher implements Closeable {
+
+    public static final int DEFAULT_MAX_IN_FLIGHT = 64;
+    public static final int DEFAULT_MAX_PER_HOST = HttpClient.DEFAULT_MAX_CONNECTIONS_PER_HOST;
+
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    private final HttpClient client;
+    private final int maxInFlight;
+    private final int maxPerHost;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+
+    // Stato del dispatcher, protetto da lock
+    private final Object lock = new Object();
+    private final Map<String, Host> hosts = new HashMap<>();
+    // Host con richieste in coda e sotto il proprio limite, serviti a turno
+    private final Deque<Host> ready = new ArrayDeque<>();
+    private int pendingCount;
+    private int inFlight;
+    private boolean closed;
+
+    // Coda e richieste attive di un host: ogni avvio e ogni rilascio costano O(1)
+    private static final class Host {
+        final Deque<Job> pending = new ArrayDeque<>();
+        int active;
+        boolean queued;
+    }
+
+    // Richiesta in attesa o in esecuzione
+    private static final class Job {
+        final String url;
+        final String host;
+        final Map<String, String> headers;
+        final CompletableFuture<HttpClient.Response> future = new CompletableFuture<>();
+
+        Job(String url, String host, Map<String, String> headers) {
+            this.url = url;
+            this.host = host;
+            this.headers = headers;
+        }
+    }
+
+    /**
+     * Creates a fetcher on a new HttpClient with the default limits.
+     * @author @francescoceliento@github.com
+     */
+    public AsyncUrlFetcher() {
+        this(new HttpClient(), DEFAULT_MAX_IN_FLIGHT, DEFAULT_MAX_PER_HOST);
+    }
+
+    /**
+     * Creates a fetcher on the given client with the given limits.
+     * @author @francescoceliento@github.com
+     *
+     * @param client
+     * @param maxInFlight maximum number of requests running at the same time
+     * @param maxPerHost maximum number of requests running at the same time against the same host
+     */
+    public AsyncUrlFetcher(HttpClient client, int maxInFlight, int maxPerHost) {
+        if (client == null) {
+            throw new IllegalArgumentException("The client cannot be null.");
+        }
+        if (maxInFlight < 1 || maxPerHost < 1) {
+            throw new IllegalArgumentException("Concurrency limits must be at least 1.");
+        }
+        this.client = client;
+        this.maxInFlight = maxInFlight;
+        this.maxPerHost = maxPerHost;
+
+        ExecutorService virtual = newVirtualThreadExecutor();
+        this.virtualThreads = virtual != null;
+        this.executor = virtual != null ? virtual : Executors.newFixedThreadPool(maxInFlight, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "saria-fetch-" + THREAD_COUNTER.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() se disponibile (JDK 21+), altrimenti null
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns true if requests run on virtual threads.
+     * @author @francescoceliento@github.com
+     *
+     * @return boolean
+     */
+    public boolean isUsingVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public int getMaxPerHost() {
+        return maxPerHost;
+    }
+
+    /**
+     * Queues a GET request and returns the future of its response.
+     * @author @francescoceliento@github.com
+     *
+     * @param url
+     * @return CompletableFuture<HttpClient.Response>
+     */
+    public CompletableFuture<HttpClient.Response> fetch(String url) {
+        return fetch(url, null);
+    }
+
+    /**
+     * Queues a GET request with additional headers and returns the future of its response.
+     * @author @francescoceliento@github.com
+     *
+     * @param url
+     * @param headers
+     * @return CompletableFuture<HttpClient.Response>
+     */
+    public CompletableFuture<HttpClient.Response> fetch(String url, Map<String, String> headers) {
+        String host;
+        try {
+            host = new URL(url).getHost().toLowerCase();
+        } catch (MalformedURLException e) {
+            CompletableFuture<HttpClient.Response> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+
+        Job job = new Job(url, host, headers);
+        synchronized (lock) {
+            if (closed) {
+                job.future.completeExceptionally(new IllegalStateException("The fetcher has been closed."));
+                return job.future;
+            }
+            Host target = hosts.get(host);
+            if (target == null) {
+                target = new Host();
+                hosts.put(host, target);
+            }
+            target.pending.addLast(job);
+            pendingCount++;
+            markReady(target);
+        }
+        dispatch();
+        return job.future;
+    }
+
+    /**
+     * Queues a GET request for each URL. The futures are in the same order as the URLs.
+     * @author @francescoceliento@github.com
+     *
+     * @param urls
+     * @return List<CompletableFuture<HttpClient.Response>>
+     */
+    public List<CompletableFuture<HttpClient.Response>> fetchAll(List<String> urls) {
+        List<CompletableFuture<HttpClient.Response>> futures = new ArrayList<>(urls.size());
+        for (String url : urls) {
+            futures.add(fetch(url));
+        }
+        return futures;
+    }
+
+    /**
+     * Asynchronous equivalent of UrlFetcher.readUrl: completes with the body if the response
+     * is 200 OK, with an empty string otherwise.
+     * @author @francescoceliento@github.com
+     *
+     * @param url
+     * @param headers
+     * @return CompletableFuture<String>
+     */
+    public CompletableFuture<String> readUrl(String url, Map<String, String> headers) {
+        return fetch(url, headers).thenApply(response ->
+                response.getStatusCode() == HttpURLConnection.HTTP_OK ? response.getBodyAsString() : "");
+    }
+
+    /**
+     * Returns the number of requests waiting for a free slot.
+     * @author @francescoceliento@github.com
+     *
+     * @return int
+     */
+    public int getPendingCount() {
+        synchronized (lock) {
+            return pendingCount;
+        }
+    }
+
+    /**
+     * Fails the queued requests and stops the threads once the running ones complete.
+     * @author @francescoceliento@github.com
+     */
+    @Override
+    public void close() {
+        List<Job> cancelled;
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            cancelled = new ArrayList<>(pendingCount);
+            for (Host host : hosts.values()) {
+                cancelled.addAll(host.pending);
+                host.pending.clear();
+            }
+            pendingCount = 0;
+            ready.clear();
+        }
+        for (Job job : cancelled) {
+            job.future.completeExceptionally(new IllegalStateException("The fetcher has been closed."));
+        }
+        executor.shutdown();
+    }
+
+    // Avvia le richieste in coda finche' i limiti globale e per host lo consentono
+    private void dispatch() {
+        List<Job> started = Collections.emptyList();
+        synchronized (lock) {
+            while (inFlight < maxInFlight && !ready.isEmpty()) {
+                Host host = ready.pollFirst();
+                host.queued = false;
+                Job job = host.pending.pollFirst();
+                pendingCount--;
+                host.active++;
+                inFlight++;
+                markReady(host);
+                if (started.isEmpty()) {
+                    started = new ArrayList<>();
+                }
+                started.add(job);
+            }
+        }
+        for (Job job : started) {
+            try {
+                executor.execute(() -> run(job));
+            } catch (RuntimeException e) {
+                release(job);
+                job.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    // Il posto viene liberato prima di completare il future: le callback dipendenti non lo occupano
+    private void run(Job job) {
+        HttpClient.Response response = null;
+        Throwable failure = null;
+        try {
+            response = client.get(job.url, job.headers);
+        } catch (Throwable e) {
+            failure = e;
+        }
+        release(job);
+        dispatch();
+        if (failure != null) {
+            job.future.completeExceptionally(failure);
+        } else {
+            job.future.complete(response);
+        }
+    }
+
+    private void release(Job job) {
+        synchronized (lock) {
+            inFlight--;
+            Host host = hosts.get(job.host);
+            host.active--;
+            if (host.active == 0 && host.pending.isEmpty()) {
+                hosts.remove(job.host);
+            } else {
+                markReady(host);
+            }
+        }
+    }
+
+    // Mette l'host in turno se ha richieste in coda e un posto libero (chiamato sotto lock)
+    private void markReady(Host host) {
+        if (!host.queued && !host.pending.isEmpty() && host.active < maxPerHost) {
+            host.queued = true;
+            ready.addLast(host);
+        }
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.francescoceliento.network;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket shared by many transfers to cap their total bandwidth. The bucket holds at most
+ * a tenth of a second of traffic; a transfer may take more tokens than available and then
+ * sleeps until the debt is repaid, so large reads never stall and the average rate is respected.
+ * @author @francescoceliento@github.com
+ */
+public class BandwidthLimiter {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private long bytesPerSecond;
+    private double capacity;
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * Creates a limiter of the given rate, 0 or negative for no limit.
+     * @author @francescoceliento@github.com
+     *
+     * @param bytesPerSecond
+     */
+    public BandwidthLimiter(long bytesPerSecond) {
+        setRate(bytesPerSecond);
+    }
+
+    /**
+     * Changes the rate, also while transfers are running. 0 or negative removes the limit.
+     * @author @francescoceliento@github.com
+     *
+     * @param bytesPerSecond
+     */
+    public synchronized void setRate(long bytesPerSecond) {
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+        this.capacity = Math.max(1, this.bytesPerSecond / 10.0);
+        this.tokens = Math.min(tokens, capacity);
+        this.lastRefill = System.nanoTime();
+    }
+
+    public synchronized long getRate() {
+        return bytesPerSecond;
+    }
+
+    public synchronized boolean isUnlimited() {
+        return bytesPerSecond == 0;
+    }
+
+    /**
+     * Takes the tokens for the given bytes, waiting if the bucket is in debt.
+     * @author @francescoceliento@github.com
+     *
+     * @param bytes
+     * @throws InterruptedException
+     */
+    public void acquire(int bytes) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            if (bytesPerSecond == 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * (double) bytesPerSecond / NANOS_PER_SECOND);
+            lastRefill = now;
+            tokens -= bytes;
+            if (tokens >= 0) {
+                return;
+            }
+            // Chi arriva dopo trova un debito maggiore e attende di piu': l'ordine viene rispettato
+            waitNanos = (long) (-tokens * NANOS_PER_SECOND / bytesPerSecond);
+        }
+        TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+
+}
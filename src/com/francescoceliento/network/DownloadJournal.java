@@ -0,0 +1,161 @@
+package com.francescoceliento.network;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sidecar journal of a partial download: remote validator, total length and the byte ranges
+ * already written to the .part file. Saved atomically at every checkpoint. Without a validator
+ * (no ETag nor Last-Modified) the journal only tracks progress in memory.
+ * @author @francescoceliento@github.com
+ */
+final class DownloadJournal {
+
+    private static final String HEADER = "saria-download 1";
+
+    private final File file;
+    private final long totalLength;
+    private final String validator;
+    // Intervalli completati [start, end) ordinati e non sovrapposti, in coppie start/end
+    private final List<long[]> completed = new ArrayList<>();
+
+    DownloadJournal(File file, long totalLength, String validator) {
+        this.file = file;
+        this.totalLength = totalLength;
+        this.validator = validator;
+    }
+
+    long getTotalLength() {
+        return totalLength;
+    }
+
+    String getValidator() {
+        return validator;
+    }
+
+    // Legge il journal, null se assente o illeggibile
+    static DownloadJournal load(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            if (!HEADER.equals(reader.readLine())) {
+                return null;
+            }
+            long totalLength = -1;
+            String validator = null;
+            List<long[]> ranges = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("length ")) {
+                    totalLength = Long.parseLong(line.substring(7));
+                } else if (line.startsWith("validator ")) {
+                    validator = line.substring(10);
+                } else if (line.startsWith("range ")) {
+                    String[] bounds = line.substring(6).split(" ");
+                    ranges.add(new long[] { Long.parseLong(bounds[0]), Long.parseLong(bounds[1]) });
+                }
+            }
+            if (totalLength < 0 || validator == null) {
+                return null;
+            }
+            DownloadJournal journal = new DownloadJournal(file, totalLength, validator);
+            for (long[] range : ranges) {
+                journal.markCompleted(range[0], range[1]);
+            }
+            return journal;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    // Registra come scritto l'intervallo [start, end), unendolo agli intervalli adiacenti
+    synchronized void markCompleted(long start, long end) {
+        if (end <= start) {
+            return;
+        }
+        int index = 0;
+        while (index < completed.size() && completed.get(index)[1] < start) {
+            index++;
+        }
+        long mergedStart = start;
+        long mergedEnd = end;
+        while (index < completed.size() && completed.get(index)[0] <= mergedEnd) {
+            long[] range = completed.remove(index);
+            mergedStart = Math.min(mergedStart, range[0]);
+            mergedEnd = Math.max(mergedEnd, range[1]);
+        }
+        completed.add(index, new long[] { mergedStart, mergedEnd });
+    }
+
+    // Intervalli ancora da scaricare [start, end)
+    synchronized List<long[]> missing() {
+        List<long[]> gaps = new ArrayList<>();
+        long position = 0;
+        for (long[] range : completed) {
+            if (range[0] > position) {
+                gaps.add(new long[] { position, range[0] });
+            }
+            position = Math.max(position, range[1]);
+        }
+        if (position < totalLength) {
+            gaps.add(new long[] { position, totalLength });
+        }
+        return gaps;
+    }
+
+    synchronized long completedBytes() {
+        long bytes = 0;
+        for (long[] range : completed) {
+            bytes += range[1] - range[0];
+        }
+        return bytes;
+    }
+
+    synchronized boolean isComplete() {
+        return completedBytes() >= totalLength;
+    }
+
+    // true se il file remoto ha un validatore: solo in questo caso la ripresa e' sicura
+    boolean isPersistent() {
+        return validator != null;
+    }
+
+    // Scrive il journal su un file temporaneo e lo sostituisce atomicamente
+    synchronized void save() throws IOException {
+        if (!isPersistent()) {
+            return;
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8))) {
+            writer.write(HEADER);
+            writer.newLine();
+            writer.write("length " + totalLength);
+            writer.newLine();
+            writer.write("validator " + validator);
+            writer.newLine();
+            for (long[] range : completed) {
+                writer.write("range " + range[0] + " " + range[1]);
+                writer.newLine();
+            }
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+}
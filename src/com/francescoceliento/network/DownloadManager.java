@@ -0,0 +1,516 @@
+package com.francescoceliento.network;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Download queue for many files. Downloads run on a bounded pool of worker threads with a limit
+ * per host, share a global bandwidth limit and report progress and throughput to a listener.
+ * Each download goes through FileDownloader, so interrupted files are resumed on the next submit.
+ * @author @francescoceliento@github.com
+ */
+public class DownloadManager implements Closeable {
+
+    public static final int DEFAULT_MAX_ACTIVE = 8;
+    public static final int DEFAULT_MAX_PER_HOST = 2;
+
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    private static final long THROUGHPUT_INTERVAL_MILLIS = 1000;
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    private final int maxActive;
+    private final int maxPerHost;
+    private final BandwidthLimiter limiter;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService monitor;
+    private volatile Listener listener;
+
+    // Statistiche di throughput
+    private final LongAdder transferred = new LongAdder();
+    private volatile long throughput;
+    private long lastSample = System.nanoTime();
+
+    // Stato del dispatcher, protetto da lock
+    private final Object lock = new Object();
+    private final Map<String, Host> hosts = new HashMap<>();
+    // Host con download in coda e sotto il proprio limite, serviti a turno
+    private final Deque<Host> ready = new ArrayDeque<>();
+    private final AtomicLong idCounter = new AtomicLong();
+    private int pendingCount;
+    private int active;
+    private boolean closed;
+
+    // Coda e download attivi di un host: ogni avvio e ogni rilascio costano O(1)
+    private static final class Host {
+        final Deque<Download> pending = new ArrayDeque<>();
+        int active;
+        boolean queued;
+    }
+
+    /**
+     * Receives the events of the downloads. Methods are called on the worker threads (progress,
+     * completion) or on the monitor thread (throughput) and must return quickly.
+     * Progress events carry only primitives and the download handle, nothing is allocated per chunk.
+     * @author @francescoceliento@github.com
+     */
+    public interface Listener {
+        default void onStarted(Download download) {
+        }
+
+        default void onProgress(Download download, long downloadedBytes, long totalBytes) {
+        }
+
+        default void onCompleted(Download download, DownloadResult result) {
+        }
+
+        default void onFailed(Download download, IOException error) {
+        }
+
+        default void onThroughput(long bytesPerSecond, int activeDownloads, int pendingDownloads) {
+        }
+    }
+
+    /**
+     * Handle of a queued download.
+     * @author @francescoceliento@github.com
+     */
+    public static final class Download {
+        private final long id;
+        private final URL url;
+        private final String host;
+        private final File destination;
+        private final FileDownloader.DigestType digestType;
+        private final CompletableFuture<DownloadResult> future = new CompletableFuture<>();
+        private final AtomicLong downloadedBytes = new AtomicLong();
+        private final AtomicLong lastProgress = new AtomicLong();
+        private volatile long totalBytes = -1;
+
+        Download(long id, URL url, File destination, FileDownloader.DigestType digestType) {
+            this.id = id;
+            this.url = url;
+            this.host = url.getHost().toLowerCase();
+            this.destination = destination;
+            this.digestType = digestType;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public URL getUrl() {
+            return url;
+        }
+
+        public File getDestination() {
+            return destination;
+        }
+
+        public long getDownloadedBytes() {
+            return downloadedBytes.get();
+        }
+
+        /**
+         * Returns the size of the file, -1 if the download has not started or the size is unknown.
+         * @author @francescoceliento@github.com
+         *
+         * @return long
+         */
+        public long getTotalBytes() {
+            return totalBytes;
+        }
+
+        public CompletableFuture<DownloadResult> getFuture() {
+            return future;
+        }
+
+        /**
+         * Cancels the download. A running download stops at the next chunk and keeps its partial file.
+         * @author @francescoceliento@github.com
+         *
+         * @return boolean
+         */
+        public boolean cancel() {
+            return future.cancel(false);
+        }
+
+        public boolean isDone() {
+            return future.isDone();
+        }
+    }
+
+    /**
+     * Creates a manager with the default limits and no bandwidth limit.
+     * @author @francescoceliento@github.com
+     */
+    public DownloadManager() {
+        this(DEFAULT_MAX_ACTIVE, DEFAULT_MAX_PER_HOST, 0);
+    }
+
+    /**
+     * Creates a manager with the given limits.
+     * @author @francescoceliento@github.com
+     *
+     * @param maxActive maximum number of downloads running at the same time
+     * @param maxPerHost maximum number of downloads running at the same time against the same host
+     * @param bytesPerSecond global bandwidth limit, 0 for no limit
+     */
+    public DownloadManager(int maxActive, int maxPerHost, long bytesPerSecond) {
+        if (maxActive < 1 || maxPerHost < 1) {
+            throw new IllegalArgumentException("Concurrency limits must be at least 1.");
+        }
+        this.maxActive = maxActive;
+        this.maxPerHost = maxPerHost;
+        this.limiter = new BandwidthLimiter(bytesPerSecond);
+        this.executor = Executors.newFixedThreadPool(maxActive, runnable -> {
+            Thread thread = new Thread(runnable, "saria-download-" + THREAD_COUNTER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.monitor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "saria-download-monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        monitor.scheduleAtFixedRate(this::sampleThroughput, THROUGHPUT_INTERVAL_MILLIS, THROUGHPUT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public Listener getListener() {
+        return listener;
+    }
+
+    /**
+     * Changes the global bandwidth limit, also for the running downloads. 0 removes the limit.
+     * @author @francescoceliento@github.com
+     *
+     * @param bytesPerSecond
+     */
+    public void setBandwidthLimit(long bytesPerSecond) {
+        limiter.setRate(bytesPerSecond);
+    }
+
+    public long getBandwidthLimit() {
+        return limiter.getRate();
+    }
+
+    public int getMaxActive() {
+        return maxActive;
+    }
+
+    public int getMaxPerHost() {
+        return maxPerHost;
+    }
+
+    /**
+     * Returns the total throughput measured in the last second, in bytes per second.
+     * @author @francescoceliento@github.com
+     *
+     * @return long
+     */
+    public long getThroughput() {
+        return throughput;
+    }
+
+    /**
+     * Queues the download of a file keeping the name of the URL.
+     * @author @francescoceliento@github.com
+     *
+     * @param source
+     * @param localDir
+     * @return Download
+     */
+    public Download submit(String source, String localDir) {
+        return submit(source, localDir, null, null);
+    }
+
+    /**
+     * Queues the download of a file saved with the given name.
+     * @author @francescoceliento@github.com
+     *
+     * @param source
+     * @param localDir
+     * @param name
+     * @return Download
+     */
+    public Download submit(String source, String localDir, String name) {
+        return submit(source, localDir, name, null);
+    }
+
+    /**
+     * Queues the download of a file saved with the given name (the name of the URL if null),
+     * computing its digest if digestType is not null.
+     * @author @francescoceliento@github.com
+     *
+     * @param source
+     * @param localDir
+     * @param name
+     * @param digestType
+     * @return Download
+     */
+    public Download submit(String source, String localDir, String name, FileDownloader.DigestType digestType) {
+        if (source == null || source.trim().isEmpty()) {
+            throw new IllegalArgumentException("The source URL cannot be empty.");
+        }
+        if (localDir == null || localDir.trim().isEmpty()) {
+            throw new IllegalArgumentException("The local directory cannot be empty.");
+        }
+        URL url;
+        try {
+            url = new URL(source);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid URL: " + source, e);
+        }
+        String fileName = name != null ? name : FileDownloader.getFileNameFromUrl(url);
+        if (fileName.trim().isEmpty()) {
+            fileName = "downloaded_file";
+        }
+
+        Download download = new Download(idCounter.incrementAndGet(), url, new File(localDir, fileName), digestType);
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("The download manager has been closed.");
+            }
+            Host host = hosts.get(download.host);
+            if (host == null) {
+                host = new Host();
+                hosts.put(download.host, host);
+            }
+            host.pending.addLast(download);
+            pendingCount++;
+            markReady(host);
+        }
+        dispatch();
+        return download;
+    }
+
+    /**
+     * Returns the number of downloads waiting for a free slot.
+     * @author @francescoceliento@github.com
+     *
+     * @return int
+     */
+    public int getPendingCount() {
+        synchronized (lock) {
+            return pendingCount;
+        }
+    }
+
+    public int getActiveCount() {
+        synchronized (lock) {
+            return active;
+        }
+    }
+
+    /**
+     * Cancels the queued downloads and stops the threads once the running ones complete.
+     * @author @francescoceliento@github.com
+     */
+    @Override
+    public void close() {
+        List<Download> cancelled;
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            cancelled = new ArrayList<>(pendingCount);
+            for (Host host : hosts.values()) {
+                cancelled.addAll(host.pending);
+                host.pending.clear();
+            }
+            pendingCount = 0;
+            ready.clear();
+        }
+        for (Download download : cancelled) {
+            download.future.cancel(false);
+        }
+        executor.shutdown();
+        monitor.shutdown();
+    }
+
+    // Avvia i download in coda finche' i limiti globale e per host lo consentono
+    private void dispatch() {
+        List<Download> started = Collections.emptyList();
+        synchronized (lock) {
+            while (active < maxActive && !ready.isEmpty()) {
+                Host host = ready.pollFirst();
+                host.queued = false;
+                Download download = host.pending.pollFirst();
+                pendingCount--;
+                if (download.future.isDone()) {
+                    // annullato mentre era in coda
+                    removeIfIdle(host, download.host);
+                    continue;
+                }
+                host.active++;
+                active++;
+                markReady(host);
+                if (started.isEmpty()) {
+                    started = new ArrayList<>();
+                }
+                started.add(download);
+            }
+        }
+        for (Download download : started) {
+            try {
+                executor.execute(() -> run(download));
+            } catch (RuntimeException e) {
+                release(download);
+                download.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void run(Download download) {
+        Listener current = listener;
+        try {
+            if (download.future.isDone()) {
+                return;
+            }
+            if (current != null) {
+                current.onStarted(download);
+            }
+            File directory = download.destination.getParentFile();
+            if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Unable to create the directory: " + directory);
+            }
+            DownloadResult result = FileDownloader.download(download.url, download.destination, 1, download.digestType, new Observer(download));
+            if (download.future.complete(result) && current != null) {
+                current.onCompleted(download, result);
+            }
+        } catch (IOException e) {
+            if (download.future.completeExceptionally(e) && current != null) {
+                current.onFailed(download, e);
+            }
+        } catch (Throwable e) {
+            // anche gli errori inattesi (FileDownloader, onStarted) arrivano al listener
+            if (download.future.completeExceptionally(e) && current != null) {
+                current.onFailed(download, new IOException("Download failed: " + download.url, e));
+            }
+        } finally {
+            release(download);
+            dispatch();
+        }
+    }
+
+    private void release(Download download) {
+        synchronized (lock) {
+            active--;
+            Host host = hosts.get(download.host);
+            host.active--;
+            removeIfIdle(host, download.host);
+        }
+    }
+
+    // Rimuove l'host senza download attivi ne' in coda, altrimenti lo rimette in turno (chiamato sotto lock)
+    private void removeIfIdle(Host host, String name) {
+        if (host.active == 0 && host.pending.isEmpty()) {
+            hosts.remove(name);
+        } else {
+            markReady(host);
+        }
+    }
+
+    // Mette l'host in turno se ha download in coda e un posto libero (chiamato sotto lock)
+    private void markReady(Host host) {
+        if (!host.queued && !host.pending.isEmpty() && host.active < maxPerHost) {
+            host.queued = true;
+            ready.addLast(host);
+        }
+    }
+
+    // Chiamato dal thread di monitoraggio una volta al secondo
+    private void sampleThroughput() {
+        long now = System.nanoTime();
+        // sum e poi sottrazione: sumThenReset puo' perdere le add concorrenti
+        long bytes = transferred.sum();
+        transferred.add(-bytes);
+        long elapsed = Math.max(1, now - lastSample);
+        lastSample = now;
+        throughput = (long) (bytes * (double) TimeUnit.SECONDS.toNanos(1) / elapsed);
+
+        Listener current = listener;
+        if (current != null) {
+            int activeDownloads;
+            int pendingDownloads;
+            synchronized (lock) {
+                activeDownloads = active;
+                pendingDownloads = pendingCount;
+            }
+            try {
+                current.onThroughput(throughput, activeDownloads, pendingDownloads);
+            } catch (RuntimeException e) {
+                // un listener difettoso non deve fermare il monitoraggio
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Collega il ciclo di copia di FileDownloader al limite di banda e agli eventi di avanzamento
+    private final class Observer implements FileDownloader.TransferObserver {
+        private final Download download;
+
+        Observer(Download download) {
+            this.download = download;
+        }
+
+        @Override
+        public void started(long totalLength, long completedBytes) {
+            download.totalBytes = totalLength;
+            download.downloadedBytes.set(completedBytes);
+            download.lastProgress.set(System.nanoTime());
+            Listener current = listener;
+            if (current != null) {
+                current.onProgress(download, completedBytes, totalLength);
+            }
+        }
+
+        @Override
+        public void transferred(int bytes) throws IOException {
+            if (download.future.isDone()) {
+                throw new InterruptedIOException("Download cancelled: " + download.url);
+            }
+            try {
+                limiter.acquire(bytes);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Download interrupted: " + download.url);
+            }
+            long done = download.downloadedBytes.addAndGet(bytes);
+            transferred.add(bytes);
+
+            Listener current = listener;
+            if (current != null) {
+                long now = System.nanoTime();
+                long last = download.lastProgress.get();
+                // con piu' connessioni per file solo un thread per intervallo pubblica l'evento
+                if (now - last >= PROGRESS_INTERVAL_NANOS && download.lastProgress.compareAndSet(last, now)) {
+                    current.onProgress(download, done, download.totalBytes);
+                }
+            }
+        }
+    }
+
+}
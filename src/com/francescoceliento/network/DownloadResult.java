@@ -0,0 +1,75 @@
+package com.francescoceliento.network;
+
+/**
+ * Result of a download: local path, size and the digest computed while the data was streamed to disk.
+ * @author @francescoceliento@github.com
+ */
+public class DownloadResult {
+
+    private final String path;
+    private final long size;
+    private final FileDownloader.DigestType digestType;
+    private final byte[] digest;
+
+    public DownloadResult(String path, long size, FileDownloader.DigestType digestType, byte[] digest) {
+        this.path = path;
+        this.size = size;
+        this.digestType = digestType;
+        this.digest = digest;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public FileDownloader.DigestType getDigestType() {
+        return digestType;
+    }
+
+    public byte[] getDigest() {
+        return digest != null ? digest.clone() : null;
+    }
+
+    /**
+     * Returns the digest in lowercase hexadecimal, null if no digest was requested.
+     * @author @francescoceliento@github.com
+     *
+     * @return String
+     */
+    public String getDigestHex() {
+        if (digest == null) {
+            return null;
+        }
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Compares the digest with the expected hexadecimal value, ignoring case.
+     * @author @francescoceliento@github.com
+     *
+     * @param expectedHex
+     * @return boolean
+     */
+    public boolean matches(String expectedHex) {
+        String actual = getDigestHex();
+        return actual != null && expectedHex != null && actual.equalsIgnoreCase(expectedHex.trim());
+    }
+
+    @Override
+    public String toString() {
+        return "DownloadResult{" +
+               "path='" + path + '\'' +
+               ", size=" + size +
+               (digest != null ? ", " + digestType + "=" + getDigestHex() : "") +
+               '}';
+    }
+
+}
@@ -1,15 +1,58 @@
 package com.francescoceliento.network;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
 
+import com.francescoceliento.system.LatencyRecorder;
+
+/**
+ * Scarica file da URL. Il download avviene su un file temporaneo ".part" accompagnato da un journal
+ * degli intervalli già scritti: se il trasferimento si interrompe, la chiamata successiva con la stessa
+ * destinazione riprende dai byte mancanti, purché il file remoto non sia cambiato (verifica con If-Range).
+ * Al termine il file temporaneo viene rinominato atomicamente nel nome finale.
+ * @author @francescoceliento@github.com
+ */
 public class FileDownloader {
 
-    private static final int BUFFER_SIZE = 4096;
+    // Algoritmi di digest calcolabili durante il download
+    public enum DigestType {
+        SHA256,
+        CRC32,
+        CRC32C    // richiede Java 9+
+    }
+
+    // Buffer grande: ogni lettura dal socket restituisce tutto ciò che è disponibile, con meno chiamate di sistema
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    // Sotto questa dimensione un intervallo non giustifica una connessione in più
+    private static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+    // Ogni quanti byte scritti il journal viene aggiornato su disco
+    private static final long CHECKPOINT_SIZE = 4L * 1024 * 1024;
+    private static final int CONNECT_TIMEOUT = 15000;
+    private static final int READ_TIMEOUT = 60000;
+
+    private static final String PART_SUFFIX = ".part";
+    private static final String JOURNAL_SUFFIX = ".journal";
+
+    private static volatile LatencyRecorder latencyRecorder;
 
     /**
      * Scarica un file da un URL e lo salva in una directory locale,
@@ -43,7 +86,7 @@ public class FileDownloader {
     }
 
     // Metodo helper per estrarre il nome del file dall'URL
-    private static String getFileNameFromUrl(URL url) {
+    static String getFileNameFromUrl(URL url) {
         String path = url.getPath();
         // Trova l'ultima occorrenza di '/' per estrarre il nome
         int lastSlashIndex = path.lastIndexOf('/');
@@ -81,7 +124,21 @@ public class FileDownloader {
 
     // Metodo privato comune per eseguire l'effettivo download
     private static String downloadAndRename(String source, String localDir, String finalName) throws IOException {
-        // 1. Preparazione dei percorsi e stream
+        // 1. Preparazione dei percorsi
+        File localDirectory = prepareDirectory(localDir);
+        File destinationFile = new File(localDirectory, finalName);
+        URL url = new URL(source);
+
+        // 2. Download effettivo (con ripresa di un eventuale download interrotto)
+        try {
+            return transfer(url, destinationFile, 1, null, null).getPath();
+        } catch (IOException e) {
+            throw new IOException("Errore durante il download del file da " + source + ": " + e.getMessage(), e);
+        }
+    }
+
+    // Verifica la directory locale e la crea se non esiste
+    private static File prepareDirectory(String localDir) throws IOException {
         File localDirectory = new File(localDir);
         if (!localDirectory.exists()) {
             // Tenta di creare la directory se non esiste
@@ -91,30 +148,483 @@ public class FileDownloader {
         } else if (!localDirectory.isDirectory()) {
             throw new IOException("Il percorso locale esiste ma non è una directory: " + localDir);
         }
+        return localDirectory;
+    }
+// ----------------------------------------------------------------------------------------------------------------------
+    /**
+     * Scarica un file da un URL usando più connessioni in parallelo, ciascuna su un intervallo di byte
+     * (richieste Range), e scrive ogni intervallo alla sua posizione nel file tramite FileChannel.
+     * Se il server non supporta le richieste parziali o la dimensione non è nota, scarica con un'unica connessione.
+     *
+     * @param source L'URL del file da scaricare (es. "https://example.com/file.iso").
+     * @param localDir La directory locale dove salvare il file (es. "/path/alla/directory").
+     * @param name Il nome da assegnare al file scaricato (es. "nuovo_nome.iso").
+     * @param connections Il numero massimo di connessioni contemporanee (almeno 1).
+     * @return Il percorso assoluto del file scaricato localmente.
+     * @throws IOException Se si verifica un errore di I/O (connessione, lettura/scrittura, ecc.).
+     * @throws IllegalArgumentException Se l'URL, la directory locale, il nome del file o il numero di connessioni non sono validi.
+     */
+    public static String download(String source, String localDir, String name, int connections) throws IOException, IllegalArgumentException {
+        if (source == null || source.trim().isEmpty()) {
+            throw new IllegalArgumentException("L'URL sorgente non può essere vuoto.");
+        }
+        if (localDir == null || localDir.trim().isEmpty()) {
+            throw new IllegalArgumentException("La directory locale non può essere vuota.");
+        }
+        if (name == null || name.trim().isEmpty()) {
+            throw new IllegalArgumentException("Il nome del file non può essere vuoto.");
+        }
+        if (connections < 1) {
+            throw new IllegalArgumentException("Il numero di connessioni deve essere almeno 1.");
+        }
 
-        File destinationFile = new File(localDirectory, finalName);
+        File destinationFile = new File(prepareDirectory(localDir), name);
+        URL url = new URL(source);
+
+        try {
+            return transfer(url, destinationFile, connections, null, null).getPath();
+        } catch (IOException e) {
+            throw new IOException("Errore durante il download del file da " + source + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Scarica un file da un URL calcolando il digest richiesto mentre i dati vengono scritti su disco,
+     * così da poter verificare il file senza rileggerlo. Usa una sola connessione, perché il digest
+     * richiede i byte in ordine; se riprende un download interrotto legge dal disco solo i byte già presenti.
+     *
+     * @param source L'URL del file da scaricare (es. "https://example.com/file.iso").
+     * @param localDir La directory locale dove salvare il file (es. "/path/alla/directory").
+     * @param name Il nome da assegnare al file scaricato (es. "nuovo_nome.iso").
+     * @param digestType L'algoritmo di digest (SHA256, CRC32, CRC32C).
+     * @return Il risultato con percorso assoluto, dimensione e digest del file.
+     * @throws IOException Se si verifica un errore di I/O (connessione, lettura/scrittura, ecc.).
+     * @throws IllegalArgumentException Se l'URL, la directory locale, il nome del file o l'algoritmo non sono validi.
+     */
+    public static DownloadResult download(String source, String localDir, String name, DigestType digestType) throws IOException, IllegalArgumentException {
+        if (source == null || source.trim().isEmpty()) {
+            throw new IllegalArgumentException("L'URL sorgente non può essere vuoto.");
+        }
+        if (localDir == null || localDir.trim().isEmpty()) {
+            throw new IllegalArgumentException("La directory locale non può essere vuota.");
+        }
+        if (name == null || name.trim().isEmpty()) {
+            throw new IllegalArgumentException("Il nome del file non può essere vuoto.");
+        }
+        if (digestType == null) {
+            throw new IllegalArgumentException("L'algoritmo di digest non può essere nullo.");
+        }
+
+        File destinationFile = new File(prepareDirectory(localDir), name);
         URL url = new URL(source);
 
-        // 2. Download effettivo
-        try (InputStream is = url.openStream();
-             OutputStream os = new FileOutputStream(destinationFile)) {
+        try {
+            return transfer(url, destinationFile, 1, digestType, null);
+        } catch (IOException e) {
+            throw new IOException("Errore durante il download del file da " + source + ": " + e.getMessage(), e);
+        }
+    }
 
-            byte[] buffer = new byte[BUFFER_SIZE];
-            int bytesRead;
+    // Punto di ingresso per DownloadManager: la directory di destinazione deve già esistere
+    static DownloadResult download(URL url, File destinationFile, int connections, DigestType digestType, TransferObserver observer) throws IOException {
+        return transfer(url, destinationFile, connections, digestType, observer);
+    }
 
-            // Legge dal server e scrive sul file locale
-            while ((bytesRead = is.read(buffer)) != -1) {
-                os.write(buffer, 0, bytesRead);
-            }
+    /**
+     * Imposta il recorder in cui registrare la durata di ogni download, riuscito o fallito; null per disattivarlo.
+     *
+     * @param recorder Il recorder condiviso, ad esempio per leggere p99 e p999 dei download.
+     */
+    public static void setLatencyRecorder(LatencyRecorder recorder) {
+        latencyRecorder = recorder;
+    }
+
+    // Misura il download se è impostato un recorder
+    private static DownloadResult transfer(URL url, File destinationFile, int connections, DigestType digestType, TransferObserver observer) throws IOException {
+        LatencyRecorder recorder = latencyRecorder;
+        if (recorder == null) {
+            return transferFile(url, destinationFile, connections, digestType, observer);
+        }
+        long start = System.nanoTime();
+        try {
+            return transferFile(url, destinationFile, connections, digestType, observer);
+        } finally {
+            recorder.recordSince(start);
+        }
+    }
+
+    // Esegue (o riprende) il download sul file ".part" e al termine lo rinomina nella destinazione
+    private static DownloadResult transferFile(URL url, File destinationFile, int connections, DigestType digestType, TransferObserver observer) throws IOException {
+        File partFile = new File(destinationFile.getPath() + PART_SUFFIX);
+        File journalFile = new File(partFile.getPath() + JOURNAL_SUFFIX);
+
+        DownloadJournal journal = partFile.isFile() ? DownloadJournal.load(journalFile) : null;
+        if (journal == null) {
+            journalFile.delete();
+        }
+        Digester digester = digestType != null ? new Digester(digestType) : null;
+        long size;
 
-            return destinationFile.getAbsolutePath();
+        try {
+            // 1. Sonda: il primo byte rivela supporto Range, dimensione totale e validatore.
+            //    Con If-Range un file remoto cambiato risponde 200 con il contenuto intero.
+            HttpURLConnection probe = openConnection(url, "bytes=0-0", journal != null ? journal.getValidator() : null);
+            int status = probe.getResponseCode();
+            String validator = validatorOf(probe);
 
+            if (status == HttpURLConnection.HTTP_OK) {
+                // Range ignorato o file cambiato: la risposta contiene già il file intero
+                long length = probe.getContentLengthLong();
+                journal = new DownloadJournal(journalFile, length, length >= 0 ? validator : null);
+                if (observer != null) {
+                    observer.started(length, 0);
+                }
+                size = writeStream(probe, partFile, journal, digester, observer);
+            } else if (status == HttpURLConnection.HTTP_PARTIAL) {
+                HttpClient.drain(probe.getInputStream());
+                long totalLength = parseTotalLength(probe.getHeaderField("Content-Range"));
+                if (totalLength < 0) {
+                    throw new IOException("Dimensione del file remoto sconosciuta");
+                }
+                if (journal != null && (journal.getTotalLength() != totalLength || !journal.getValidator().equals(validator))) {
+                    journal = null;
+                }
+                if (journal == null) {
+                    partFile.delete();
+                    journal = new DownloadJournal(journalFile, totalLength, validator);
+                }
+                if (observer != null) {
+                    observer.started(totalLength, journal.completedBytes());
+                }
+                // Il digest in linea richiede i byte in ordine: una sola connessione
+                writeRanges(url, partFile, journal, digester != null ? 1 : connections, digester, observer);
+                size = totalLength;
+            } else if (status == 416) {
+                // Range non soddisfacibile: file remoto vuoto
+                HttpClient.drain(probe.getErrorStream());
+                HttpURLConnection conn = openConnection(url, null, null);
+                if (conn.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                    throw unexpectedStatus(conn);
+                }
+                journal = new DownloadJournal(journalFile, conn.getContentLengthLong(), null);
+                if (observer != null) {
+                    observer.started(journal.getTotalLength(), 0);
+                }
+                size = writeStream(conn, partFile, journal, digester, observer);
+            } else {
+                throw unexpectedStatus(probe);
+            }
         } catch (IOException e) {
-            // Pulizia: se il download fallisce, elimina il file parziale
-            if (destinationFile.exists() && destinationFile.length() > 0) {
-                destinationFile.delete();
+            if (journal != null && journal.isPersistent() && !(e instanceof RemoteChangedException)) {
+                // Conserva il file parziale: la prossima chiamata riprenderà dai byte mancanti
+                try {
+                    journal.save();
+                } catch (IOException saveError) {
+                    e.addSuppressed(saveError);
+                }
+            } else {
+                partFile.delete();
+                journalFile.delete();
             }
-            throw new IOException("Errore durante il download del file da " + source + ": " + e.getMessage(), e);
+            throw e;
+        }
+
+        // 2. Completamento: rinomina atomica e rimozione del journal
+        moveAtomically(partFile, destinationFile);
+        journalFile.delete();
+        return new DownloadResult(destinationFile.getAbsolutePath(), size, digestType, digester != null ? digester.finish() : null);
+    }
+
+    // Scrive in sequenza l'intero corpo della risposta nel file, troncandolo
+    private static long writeStream(HttpURLConnection conn, File partFile, DownloadJournal journal, Digester digester, TransferObserver observer) throws IOException {
+        long written;
+        try (InputStream is = conn.getInputStream();
+             RandomAccessFile raf = new RandomAccessFile(partFile, "rw")) {
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            written = copyRange(is, channel, 0, -1, journal, digester, observer);
+            channel.force(false);
+        }
+        if (journal.getTotalLength() >= 0 && written != journal.getTotalLength()) {
+            throw new IOException("Download incompleto: ricevuti " + written + " byte su " + journal.getTotalLength());
+        }
+        return written;
+    }
+
+    // Scarica gli intervalli mancanti del journal, in parallelo o (con digest) in ordine
+    private static void writeRanges(URL url, File partFile, DownloadJournal journal, int connections, Digester digester, TransferObserver observer) throws IOException {
+        List<long[]> pieces = split(journal.missing(), connections);
+        try (RandomAccessFile raf = new RandomAccessFile(partFile, "rw")) {
+            if (raf.length() != journal.getTotalLength()) {
+                raf.setLength(journal.getTotalLength());
+            }
+            FileChannel channel = raf.getChannel();
+
+            if (pieces.size() <= 1 || connections == 1) {
+                // I byte già presenti da un download precedente vengono letti una sola volta dal disco per il digest
+                long hashed = 0;
+                for (long[] piece : pieces) {
+                    if (digester != null) {
+                        digester.updateFromFile(channel, hashed, piece[0]);
+                    }
+                    downloadRange(url, channel, piece[0], piece[1], journal, digester, observer);
+                    hashed = piece[1];
+                }
+                if (digester != null) {
+                    digester.updateFromFile(channel, hashed, journal.getTotalLength());
+                }
+            } else {
+                ExecutorService executor = Executors.newFixedThreadPool(Math.min(connections, pieces.size()));
+                try {
+                    List<Future<Void>> futures = new ArrayList<>(pieces.size());
+                    for (long[] piece : pieces) {
+                        futures.add(executor.submit(() -> {
+                            downloadRange(url, channel, piece[0], piece[1], journal, null, observer);
+                            return null;
+                        }));
+                    }
+                    for (Future<Void> future : futures) {
+                        try {
+                            future.get();
+                        } catch (ExecutionException e) {
+                            Throwable cause = e.getCause();
+                            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new IOException("Download interrotto", e);
+                        }
+                    }
+                } finally {
+                    executor.shutdownNow();
+                }
+            }
+
+            if (!journal.isComplete()) {
+                throw new IOException("Download incompleto: " + journal.completedBytes() + " byte su " + journal.getTotalLength());
+            }
+            // I dati devono essere su disco prima della rinomina
+            channel.force(false);
+        }
+    }
+
+    // Divide gli intervalli mancanti in parti di dimensione simile, una per connessione
+    private static List<long[]> split(List<long[]> gaps, int connections) {
+        long missingBytes = 0;
+        for (long[] gap : gaps) {
+            missingBytes += gap[1] - gap[0];
+        }
+        long pieceSize = Math.max(MIN_SEGMENT_SIZE, (missingBytes + connections - 1) / connections);
+
+        List<long[]> pieces = new ArrayList<>();
+        for (long[] gap : gaps) {
+            for (long start = gap[0]; start < gap[1]; start += pieceSize) {
+                long end = Math.min(gap[1], start + pieceSize);
+                // Evita una coda troppo piccola: la accorpa alla parte corrente
+                if (gap[1] - end < MIN_SEGMENT_SIZE / 2) {
+                    end = gap[1];
+                }
+                pieces.add(new long[] { start, end });
+                if (end == gap[1]) {
+                    break;
+                }
+            }
+        }
+        return pieces;
+    }
+
+    // Scarica l'intervallo [start, end) e lo scrive con scritture posizionali sul canale condiviso
+    private static void downloadRange(URL url, FileChannel channel, long start, long end, DownloadJournal journal, Digester digester, TransferObserver observer) throws IOException {
+        HttpURLConnection conn = openConnection(url, "bytes=" + start + "-" + (end - 1), journal.getValidator());
+        int status = conn.getResponseCode();
+        if (status == HttpURLConnection.HTTP_OK) {
+            // If-Range non soddisfatto: il file remoto è cambiato, i byte già scritti non sono più validi
+            conn.disconnect();
+            throw new RemoteChangedException("Il file remoto è cambiato durante il download");
+        }
+        if (status != HttpURLConnection.HTTP_PARTIAL) {
+            throw unexpectedStatus(conn);
+        }
+
+        long position;
+        try (InputStream is = conn.getInputStream()) {
+            position = copyRange(is, channel, start, end, journal, digester, observer);
+        }
+        if (position != end) {
+            throw new IOException("Intervallo " + start + "-" + (end - 1) + " incompleto: ricevuti " + (position - start) + " byte");
+        }
+    }
+
+    // Copia lo stream nel canale a partire da start (fino a end, o alla fine dello stream se end < 0).
+    // Letture da 1 MB direttamente dal socket, digest aggiornato sullo stesso buffer, journal a ogni checkpoint.
+    private static long copyRange(InputStream is, FileChannel channel, long start, long end, DownloadJournal journal, Digester digester, TransferObserver observer) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        ByteBuffer wrapper = ByteBuffer.wrap(buffer);
+        long position = start;
+        long checkpoint = start;
+        try {
+            while (end < 0 || position < end) {
+                int bytesRead = is.read(buffer, 0, end < 0 ? buffer.length : (int) Math.min(buffer.length, end - position));
+                if (bytesRead == -1) {
+                    break;
+                }
+                if (digester != null) {
+                    digester.update(buffer, 0, bytesRead);
+                }
+                wrapper.clear().limit(bytesRead);
+                while (wrapper.hasRemaining()) {
+                    position += channel.write(wrapper, position);
+                }
+                if (observer != null) {
+                    observer.transferred(bytesRead);
+                }
+                if (position - checkpoint >= CHECKPOINT_SIZE) {
+                    journal.markCompleted(checkpoint, position);
+                    journal.save();
+                    checkpoint = position;
+                }
+            }
+        } finally {
+            journal.markCompleted(checkpoint, position);
+        }
+        return position;
+    }
+
+    // Apre una connessione senza compressione, così Content-Length e Range si riferiscono ai byte del file
+    private static HttpURLConnection openConnection(URL url, String range, String ifRange) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setConnectTimeout(CONNECT_TIMEOUT);
+        conn.setReadTimeout(READ_TIMEOUT);
+        conn.setRequestProperty("Accept-Encoding", "identity");
+        if (range != null) {
+            conn.setRequestProperty("Range", range);
+            if (ifRange != null) {
+                conn.setRequestProperty("If-Range", ifRange);
+            }
+        }
+        return conn;
+    }
+
+    // ETag forte o, in sua assenza, Last-Modified: gli unici valori ammessi in If-Range
+    private static String validatorOf(HttpURLConnection conn) {
+        String etag = conn.getHeaderField("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return conn.getHeaderField("Last-Modified");
+    }
+
+    // Estrae la dimensione totale da "Content-Range: bytes 0-0/12345", -1 se sconosciuta
+    private static long parseTotalLength(String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+        int slash = contentRange.lastIndexOf('/');
+        if (slash < 0 || contentRange.endsWith("*")) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static IOException unexpectedStatus(HttpURLConnection conn) throws IOException {
+        int status = conn.getResponseCode();
+        if (status >= HttpURLConnection.HTTP_BAD_REQUEST) {
+            HttpClient.drain(conn.getErrorStream());
+        } else {
+            conn.disconnect();
+        }
+        return new IOException("Risposta inattesa dal server: HTTP " + status);
+    }
+
+    private static void moveAtomically(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Osservatore usato da DownloadManager per limiti di banda e avanzamento.
+    // Riceve solo primitivi: nessuna allocazione per blocco trasferito.
+    interface TransferObserver {
+        // Dimensione totale (-1 se sconosciuta) e byte già presenti da un download precedente
+        void started(long totalLength, long completedBytes);
+
+        // Chiamato dopo ogni blocco scritto; può bloccare (limite di banda) o interrompere con una IOException
+        void transferred(int bytes) throws IOException;
+    }
+
+    // Calcola il digest richiesto sui byte mentre vengono scritti
+    private static final class Digester {
+        private final MessageDigest messageDigest;
+        private final Checksum checksum;
+
+        Digester(DigestType type) {
+            try {
+                switch (type) {
+                    case SHA256:
+                        messageDigest = MessageDigest.getInstance("SHA-256");
+                        checksum = null;
+                        break;
+                    case CRC32C:
+                        // Disponibile da Java 9: caricato per riflessione per restare compatibili con Java 8
+                        messageDigest = null;
+                        checksum = (Checksum) Class.forName("java.util.zip.CRC32C").getDeclaredConstructor().newInstance();
+                        break;
+                    default:
+                        messageDigest = null;
+                        checksum = new CRC32();
+                        break;
+                }
+            } catch (ReflectiveOperationException | NoSuchAlgorithmException e) {
+                throw new UnsupportedOperationException("Digest " + type + " non supportato da questa JVM", e);
+            }
+        }
+
+        void update(byte[] buffer, int offset, int length) {
+            if (messageDigest != null) {
+                messageDigest.update(buffer, offset, length);
+            } else {
+                checksum.update(buffer, offset, length);
+            }
+        }
+
+        // Aggiunge al digest i byte [start, end) già presenti nel file
+        void updateFromFile(FileChannel channel, long start, long end) throws IOException {
+            if (end <= start) {
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, end - start));
+            long position = start;
+            while (position < end) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+                int read = channel.read(buffer, position);
+                if (read == -1) {
+                    throw new IOException("File parziale più corto del previsto");
+                }
+                update(buffer.array(), 0, read);
+                position += read;
+            }
+        }
+
+        byte[] finish() {
+            if (messageDigest != null) {
+                return messageDigest.digest();
+            }
+            long value = checksum.getValue();
+            return new byte[] { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value };
+        }
+    }
+
+    // Il file remoto è cambiato: il download parziale va scartato
+    private static class RemoteChangedException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        RemoteChangedException(String message) {
+            super(message);
         }
     }
 
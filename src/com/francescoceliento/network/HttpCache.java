@@ -0,0 +1,507 @@
+package com.francescoceliento.network;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HTTP response cache used by HttpClient for GET requests. Entries are kept in memory with LRU eviction
+ * bounded by number and total size, and optionally persisted to a directory so they survive restarts.
+ * Fresh entries (Cache-Control: max-age) are served without contacting the server, stale entries are
+ * revalidated with If-None-Match / If-Modified-Since and served again on 304 Not Modified.
+ * The cache is shared by all the callers of a client: responses marked private are not stored, and
+ * responses with a Vary header are served only to requests with the same values of the varied headers.
+ * @author @francescoceliento@github.com
+ */
+public class HttpCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+    public static final long DEFAULT_MAX_BYTES = 8L * 1024 * 1024;
+
+    private static final int DISK_FORMAT = 0x53524332; // "SRC2"
+    private static final int HEADER_OVERHEAD = 512;
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final File directory;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    /**
+     * Cached response with its validators and freshness information.
+     * @author @francescoceliento@github.com
+     */
+    public static class Entry {
+        private final String url;
+        private final int statusCode;
+        private final Map<String, List<String>> headers;
+        private final byte[] body;
+        // Valori degli header di richiesta indicati da Vary (nome in minuscolo, null se assente)
+        private final Map<String, String> varyHeaders;
+        private volatile long storedAt;
+        private volatile long maxAge;
+
+        Entry(String url, int statusCode, Map<String, List<String>> headers, byte[] body, Map<String, String> varyHeaders,
+                long storedAt, long maxAge) {
+            this.url = url;
+            this.statusCode = statusCode;
+            this.headers = headers;
+            this.body = body;
+            this.varyHeaders = varyHeaders;
+            this.storedAt = storedAt;
+            this.maxAge = maxAge;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public String getETag() {
+            return HttpClient.headerValue(headers, "ETag");
+        }
+
+        public String getLastModified() {
+            return HttpClient.headerValue(headers, "Last-Modified");
+        }
+
+        /**
+         * Returns true if the entry can be served without revalidation.
+         * @author @francescoceliento@github.com
+         *
+         * @param now current time in milliseconds
+         * @return boolean
+         */
+        public boolean isFresh(long now) {
+            return maxAge > 0 && now - storedAt < maxAge;
+        }
+
+        /**
+         * Returns true if the entry can be served to a request with these headers, i.e. the headers
+         * named by Vary have the values of the request that stored the entry.
+         * @author @francescoceliento@github.com
+         *
+         * @param requestHeaders may be null
+         * @return boolean
+         */
+        public boolean matches(Map<String, String> requestHeaders) {
+            for (Map.Entry<String, String> vary : varyHeaders.entrySet()) {
+                String value = requestHeader(requestHeaders, vary.getKey());
+                if (value == null ? vary.getValue() != null : !value.equals(vary.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public HttpClient.Response toResponse() {
+            return new HttpClient.Response(url, statusCode, headers, body);
+        }
+
+        long weight() {
+            return body.length + HEADER_OVERHEAD;
+        }
+    }
+
+    /**
+     * Creates an in-memory cache with the default limits.
+     * @author @francescoceliento@github.com
+     */
+    public HttpCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES, null);
+    }
+
+    /**
+     * Creates a cache with the given limits, persisted in the directory if not null.
+     * @author @francescoceliento@github.com
+     *
+     * @param maxEntries
+     * @param maxBytes
+     * @param directory
+     */
+    public HttpCache(int maxEntries, long maxBytes, File directory) {
+        if (maxEntries < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("Cache limits must be positive.");
+        }
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Unable to create the cache directory: " + directory);
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the cached entry of the URL for a request without headers.
+     * @author @francescoceliento@github.com
+     *
+     * @param url
+     * @return Entry or null
+     */
+    public Entry get(String url) {
+        return get(url, null);
+    }
+
+    /**
+     * Returns the cached entry of the URL if it matches the request headers (see Entry.matches),
+     * looking on disk if it is not in memory.
+     * @author @francescoceliento@github.com
+     *
+     * @param url
+     * @param requestHeaders may be null
+     * @return Entry or null
+     */
+    public Entry get(String url, Map<String, String> requestHeaders) {
+        Entry entry = lookup(url);
+        return entry != null && entry.matches(requestHeaders) ? entry : null;
+    }
+
+    private Entry lookup(String url) {
+        synchronized (this) {
+            Entry entry = entries.get(url);
+            if (entry != null || directory == null) {
+                return entry;
+            }
+        }
+        Entry loaded = load(url);
+        if (loaded != null) {
+            synchronized (this) {
+                insert(loaded);
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Stores a 200 response to a request without headers if its headers allow it.
+     * @author @francescoceliento@github.com
+     *
+     * @param url
+     * @param response
+     * @return boolean
+     */
+    public boolean put(String url, HttpClient.Response response) {
+        return put(url, null, response);
+    }
+
+    /**
+     * Stores a 200 response if its headers allow it. Returns true if it has been cached.
+     * Responses with Cache-Control no-store or private, or with Vary: *, are not stored.
+     * @author @francescoceliento@github.com
+     *
+     * @param url
+     * @param requestHeaders the headers of the request, may be null
+     * @param response
+     * @return boolean
+     */
+    public boolean put(String url, Map<String, String> requestHeaders, HttpClient.Response response) {
+        if (response.getStatusCode() != 200) {
+            return false;
+        }
+        String cacheControl = response.getHeader("Cache-Control");
+        // Cache condivisa tra i chiamanti: le risposte private non vanno riutilizzate
+        if (hasDirective(cacheControl, "no-store") || hasDirective(cacheControl, "private")) {
+            return false;
+        }
+        Map<String, String> varyHeaders = varyHeaders(response, requestHeaders);
+        if (varyHeaders == null) {
+            return false;
+        }
+        long maxAge = hasDirective(cacheControl, "no-cache") ? 0 : maxAgeMillis(cacheControl);
+        if (maxAge <= 0 && response.getHeader("ETag") == null && response.getHeader("Last-Modified") == null) {
+            // Senza validatori ne' durata la risposta non e' riutilizzabile
+            return false;
+        }
+
+        Entry entry = new Entry(url, response.getStatusCode(), response.getHeaders(), response.getBody(), varyHeaders,
+                System.currentTimeMillis() - ageMillis(response), maxAge);
+        if (entry.weight() > maxBytes) {
+            return false;
+        }
+        synchronized (this) {
+            insert(entry);
+        }
+        store(entry);
+        return true;
+    }
+
+    /**
+     * Updates the freshness of an entry after a 304 Not Modified response.
+     * @author @francescoceliento@github.com
+     *
+     * @param entry
+     * @param notModified
+     */
+    public void revalidated(Entry entry, HttpClient.Response notModified) {
+        String cacheControl = notModified.getHeader("Cache-Control");
+        if (cacheControl != null) {
+            entry.maxAge = hasDirective(cacheControl, "no-cache") ? 0 : maxAgeMillis(cacheControl);
+        }
+        entry.storedAt = System.currentTimeMillis() - ageMillis(notModified);
+        store(entry);
+    }
+
+    /**
+     * Removes the entry of the URL from memory and disk.
+     * @author @francescoceliento@github.com
+     *
+     * @param url
+     */
+    public void remove(String url) {
+        synchronized (this) {
+            Entry removed = entries.remove(url);
+            if (removed != null) {
+                totalBytes -= removed.weight();
+            }
+        }
+        if (directory != null) {
+            fileOf(url).delete();
+        }
+    }
+
+    /**
+     * Removes all entries from memory and disk.
+     * @author @francescoceliento@github.com
+     */
+    public void clear() {
+        synchronized (this) {
+            entries.clear();
+            totalBytes = 0;
+        }
+        if (directory != null) {
+            File[] files = directory.listFiles((dir, name) -> name.endsWith(".cache"));
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    // Inserisce in memoria ed elimina le voci meno usate oltre i limiti (chiamato sotto lock)
+    private void insert(Entry entry) {
+        Entry previous = entries.put(entry.url, entry);
+        if (previous != null) {
+            totalBytes -= previous.weight();
+        }
+        totalBytes += entry.weight();
+
+        Iterator<Entry> eldest = entries.values().iterator();
+        while ((entries.size() > maxEntries || totalBytes > maxBytes) && eldest.hasNext()) {
+            Entry evicted = eldest.next();
+            if (evicted == entry) {
+                continue;
+            }
+            eldest.remove();
+            totalBytes -= evicted.weight();
+        }
+    }
+
+    private void store(Entry entry) {
+        if (directory == null) {
+            return;
+        }
+        File target = fileOf(entry.url);
+        File temp = new File(directory, target.getName() + ".tmp" + Thread.currentThread().getId());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(DISK_FORMAT);
+            out.writeUTF(entry.url);
+            out.writeInt(entry.statusCode);
+            out.writeLong(entry.storedAt);
+            out.writeLong(entry.maxAge);
+            int count = 0;
+            for (String name : entry.headers.keySet()) {
+                if (name != null) {
+                    count++;
+                }
+            }
+            out.writeInt(count);
+            for (Map.Entry<String, List<String>> header : entry.headers.entrySet()) {
+                if (header.getKey() == null) {
+                    continue;
+                }
+                out.writeUTF(header.getKey());
+                out.writeInt(header.getValue().size());
+                for (String value : header.getValue()) {
+                    out.writeUTF(value);
+                }
+            }
+            out.writeInt(entry.varyHeaders.size());
+            for (Map.Entry<String, String> vary : entry.varyHeaders.entrySet()) {
+                out.writeUTF(vary.getKey());
+                out.writeBoolean(vary.getValue() != null);
+                if (vary.getValue() != null) {
+                    out.writeUTF(vary.getValue());
+                }
+            }
+            out.writeInt(entry.body.length);
+            out.write(entry.body);
+        } catch (IOException e) {
+            temp.delete();
+            return;
+        }
+        try {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            temp.delete();
+        }
+    }
+
+    private Entry load(String url) {
+        File file = fileOf(url);
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != DISK_FORMAT || !in.readUTF().equals(url)) {
+                return null;
+            }
+            int statusCode = in.readInt();
+            long storedAt = in.readLong();
+            long maxAge = in.readLong();
+            int count = in.readInt();
+            Map<String, List<String>> headers = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                int values = in.readInt();
+                List<String> list = new ArrayList<>(values);
+                for (int j = 0; j < values; j++) {
+                    list.add(in.readUTF());
+                }
+                headers.put(name, Collections.unmodifiableList(list));
+            }
+            int varyCount = in.readInt();
+            Map<String, String> varyHeaders = new LinkedHashMap<>();
+            for (int i = 0; i < varyCount; i++) {
+                String name = in.readUTF();
+                varyHeaders.put(name, in.readBoolean() ? in.readUTF() : null);
+            }
+            byte[] body = new byte[in.readInt()];
+            in.readFully(body);
+            return new Entry(url, statusCode, Collections.unmodifiableMap(headers), body, Collections.unmodifiableMap(varyHeaders),
+                    storedAt, maxAge);
+        } catch (IOException e) {
+            // voce corrotta o di un formato precedente
+            file.delete();
+            return null;
+        }
+    }
+
+    private File fileOf(String url) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(url.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder(hash.length * 2 + 6);
+            for (byte b : hash) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return new File(directory, name.append(".cache").toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Header di richiesta indicati da Vary con i loro valori; null se la risposta varia su tutto (Vary: *)
+    private static Map<String, String> varyHeaders(HttpClient.Response response, Map<String, String> requestHeaders) {
+        Map<String, String> varyHeaders = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String>> header : response.getHeaders().entrySet()) {
+            if (header.getKey() == null || !header.getKey().equalsIgnoreCase("Vary") || header.getValue() == null) {
+                continue;
+            }
+            for (String value : header.getValue()) {
+                for (String name : value.split(",")) {
+                    String token = name.trim().toLowerCase();
+                    if (token.equals("*")) {
+                        return null;
+                    }
+                    if (!token.isEmpty()) {
+                        varyHeaders.put(token, requestHeader(requestHeaders, token));
+                    }
+                }
+            }
+        }
+        return varyHeaders.isEmpty() ? Collections.<String, String>emptyMap() : Collections.unmodifiableMap(varyHeaders);
+    }
+
+    // Valore di un header di richiesta, ignorando maiuscole e minuscole nel nome
+    static String requestHeader(Map<String, String> requestHeaders, String name) {
+        if (requestHeaders != null) {
+            for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+                if (header.getKey() != null && header.getKey().equalsIgnoreCase(name)) {
+                    return header.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    static boolean hasDirective(String cacheControl, String directive) {
+        if (cacheControl == null) {
+            return false;
+        }
+        for (String part : cacheControl.split(",")) {
+            String token = part.trim();
+            if (token.equalsIgnoreCase(directive) || token.regionMatches(true, 0, directive + "=", 0, directive.length() + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static long maxAgeMillis(String cacheControl) {
+        if (cacheControl == null) {
+            return 0;
+        }
+        for (String part : cacheControl.split(",")) {
+            String token = part.trim();
+            if (token.regionMatches(true, 0, "max-age=", 0, 8)) {
+                try {
+                    return Math.max(0, Long.parseLong(token.substring(8).replace("\"", "").trim()) * 1000);
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
+    private static long ageMillis(HttpClient.Response response) {
+        String age = response.getHeader("Age");
+        if (age != null) {
+            try {
+                return Math.max(0, Long.parseLong(age.trim()) * 1000);
+            } catch (NumberFormatException e) {
+                // ignorato
+            }
+        }
+        return 0;
+    }
+
+}
@@ -0,0 +1,481 @@
+package com.francescoceliento.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reusable HTTP client with per-host connection limits, timeouts and transparent gzip/deflate decompression.
+ * Response bodies are always drained and the streams closed without disconnecting, so the JDK
+ * keep-alive cache can reuse the connection (and its TLS session) for the next request to the same host.
+ * The number of idle connections kept per host by the JDK is controlled by the http.maxConnections
+ * system property (default 5).
+ * @author @francescoceliento@github.com
+ */
+public class HttpClient {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    public static final int DEFAULT_READ_TIMEOUT = 30000;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 5;
+
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+    // Oltre questa soglia il buffer del thread non viene trattenuto dopo la risposta
+    private static final int MAX_RETAINED_BUFFER_SIZE = 4 * 1024 * 1024;
+    private static final byte[] EMPTY_BODY = new byte[0];
+
+    private static final ThreadLocal<byte[]> BODY_BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[INITIAL_BUFFER_SIZE];
+        }
+    };
+
+    private static final HttpClient DEFAULT = new HttpClient();
+
+    static {
+        DEFAULT.setCache(new HttpCache());
+    }
+
+    private volatile int connectTimeout;
+    private volatile int readTimeout;
+    private final int maxConnectionsPerHost;
+    private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+    private volatile HttpCache cache;
+
+    /**
+     * HTTP response with the body already read and decompressed.
+     * @author @francescoceliento@github.com
+     */
+    public static class Response {
+        private final String url;
+        private final int statusCode;
+        private final Map<String, List<String>> headers;
+        private final byte[] body;
+
+        public Response(String url, int statusCode, Map<String, List<String>> headers, byte[] body) {
+            this.url = url;
+            this.statusCode = statusCode;
+            this.headers = headers != null ? headers : Collections.<String, List<String>>emptyMap();
+            this.body = body != null ? body : EMPTY_BODY;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        public boolean isSuccessful() {
+            return statusCode >= 200 && statusCode < 300;
+        }
+
+        public Map<String, List<String>> getHeaders() {
+            return headers;
+        }
+
+        /**
+         * Returns the first value of the header, ignoring the case of the name.
+         * @author @francescoceliento@github.com
+         *
+         * @param name
+         * @return String
+         */
+        public String getHeader(String name) {
+            return headerValue(headers, name);
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        /**
+         * Decodes the body with the charset of the Content-Type header, UTF-8 if not specified.
+         * @author @francescoceliento@github.com
+         *
+         * @return String
+         */
+        public String getBodyAsString() {
+            return new String(body, charsetOf(getHeader("Content-Type")));
+        }
+    }
+
+    /**
+     * Creates a client with the default timeouts and per-host limit.
+     * @author @francescoceliento@github.com
+     */
+    public HttpClient() {
+        this(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT, DEFAULT_MAX_CONNECTIONS_PER_HOST);
+    }
+
+    /**
+     * Creates a client with the given timeouts in milliseconds and the maximum number
+     * of concurrent connections to the same host.
+     * @author @francescoceliento@github.com
+     *
+     * @param connectTimeout
+     * @param readTimeout
+     * @param maxConnectionsPerHost
+     */
+    public HttpClient(int connectTimeout, int readTimeout, int maxConnectionsPerHost) {
+        if (connectTimeout < 0 || readTimeout < 0) {
+            throw new IllegalArgumentException("Timeouts cannot be negative.");
+        }
+        if (maxConnectionsPerHost < 1) {
+            throw new IllegalArgumentException("At least one connection per host is required.");
+        }
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+    }
+
+    /**
+     * Returns the shared client used by UrlFetcher, with an in-memory HttpCache.
+     * @author @francescoceliento@github.com
+     *
+     * @return HttpClient
+     */
+    public static HttpClient getDefault() {
+        return DEFAULT;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    public HttpCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Sets the response cache used for GET requests, null to disable caching.
+     * @author @francescoceliento@github.com
+     *
+     * @param cache
+     */
+    public void setCache(HttpCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Executes a GET request.
+     * @author @francescoceliento@github.com
+     *
+     * @param url
+     * @return Response
+     * @throws IOException
+     */
+    public Response get(String url) throws IOException {
+        return execute("GET", url, null);
+    }
+
+    /**
+     * Executes a GET request with additional request headers.
+     * @author @francescoceliento@github.com
+     *
+     * @param url
+     * @param headers
+     * @return Response
+     * @throws IOException
+     */
+    public Response get(String url, Map<String, String> headers) throws IOException {
+        return execute("GET", url, headers);
+    }
+
+    /**
+     * Executes a request without body (GET, HEAD, DELETE...) and reads the whole response.
+     * Error responses (4xx, 5xx) are returned, not thrown, so that the connection can be reused.
+     * GET requests go through the cache, if set, unless the caller already sends conditional headers
+     * or credentials (Authorization, Cookie), whose responses must not be shared with other callers.
+     * @author @francescoceliento@github.com
+     *
+     * @param method
+     * @param url
+     * @param headers
+     * @return Response
+     * @throws IOException
+     */
+    public Response execute(String method, String url, Map<String, String> headers) throws IOException {
+        HttpCache currentCache = cache;
+        if (currentCache == null || !"GET".equals(method) || isConditional(headers) || hasCredentials(headers)) {
+            return send(method, url, headers);
+        }
+
+        HttpCache.Entry entry = currentCache.get(url, headers);
+        if (entry == null) {
+            Response response = send(method, url, headers);
+            currentCache.put(url, headers, response);
+            return response;
+        }
+        if (entry.isFresh(System.currentTimeMillis())) {
+            return entry.toResponse();
+        }
+
+        // Voce scaduta: richiesta condizionale con i validatori salvati
+        Map<String, String> conditional = headers != null ? new HashMap<>(headers) : new HashMap<String, String>();
+        if (entry.getETag() != null) {
+            conditional.put("If-None-Match", entry.getETag());
+        }
+        if (entry.getLastModified() != null) {
+            conditional.put("If-Modified-Since", entry.getLastModified());
+        }
+        Response response = send(method, url, conditional);
+        if (response.getStatusCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            currentCache.revalidated(entry, response);
+            return entry.toResponse();
+        }
+        if (!currentCache.put(url, headers, response)) {
+            currentCache.remove(url);
+        }
+        return response;
+    }
+
+    private static boolean isConditional(Map<String, String> headers) {
+        if (headers == null) {
+            return false;
+        }
+        for (String name : headers.keySet()) {
+            if (name.equalsIgnoreCase("If-None-Match") || name.equalsIgnoreCase("If-Modified-Since")
+                    || name.equalsIgnoreCase("Range")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasCredentials(Map<String, String> headers) {
+        return HttpCache.requestHeader(headers, "Authorization") != null || HttpCache.requestHeader(headers, "Cookie") != null;
+    }
+
+    private Response send(String method, String url, Map<String, String> headers) throws IOException {
+        URL target = new URL(url);
+        Semaphore permit = permitFor(target);
+        try {
+            permit.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a connection to " + target.getHost(), e);
+        }
+
+        try {
+            HttpURLConnection conn = open(method, target, headers);
+            int statusCode;
+            try {
+                statusCode = conn.getResponseCode();
+            } catch (IOException e) {
+                drain(conn.getErrorStream());
+                throw e;
+            }
+
+            InputStream raw = statusCode >= HttpURLConnection.HTTP_BAD_REQUEST ? conn.getErrorStream() : conn.getInputStream();
+            byte[] body = EMPTY_BODY;
+            if (raw != null) {
+                InputStream decoded = null;
+                try {
+                    decoded = decode(raw, conn.getContentEncoding());
+                    body = readBody(decoded, conn.getContentLengthLong());
+                } finally {
+                    drain(raw);
+                    if (decoded != null && decoded != raw) {
+                        // Libera subito l'Inflater nativo del decompressore; raw e' gia' chiuso
+                        try {
+                            decoded.close();
+                        } catch (IOException e) {
+                            // ignorata
+                        }
+                    }
+                }
+            }
+            return new Response(url, statusCode, conn.getHeaderFields(), body);
+        } finally {
+            permit.release();
+        }
+    }
+
+    /**
+     * Opens and configures the connection without sending it. The caller must read and close
+     * the response streams. Used for transfers that must not be buffered in memory.
+     * @author @francescoceliento@github.com
+     *
+     * @param method
+     * @param target
+     * @param headers
+     * @return HttpURLConnection
+     * @throws IOException
+     */
+    HttpURLConnection open(String method, URL target, Map<String, String> headers) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) target.openConnection();
+        conn.setRequestMethod(method);
+        conn.setConnectTimeout(connectTimeout);
+        conn.setReadTimeout(readTimeout);
+        conn.setUseCaches(false);
+        conn.setRequestProperty("Accept-Encoding", "gzip, deflate");
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                conn.setRequestProperty(header.getKey(), header.getValue());
+            }
+        }
+        return conn;
+    }
+
+    // Semaforo che limita le connessioni contemporanee verso lo stesso host
+    private Semaphore permitFor(URL target) {
+        int port = target.getPort() != -1 ? target.getPort() : target.getDefaultPort();
+        String key = target.getProtocol() + "://" + target.getHost().toLowerCase() + ":" + port;
+        Semaphore permit = hostPermits.get(key);
+        if (permit == null) {
+            Semaphore created = new Semaphore(maxConnectionsPerHost, true);
+            permit = hostPermits.putIfAbsent(key, created);
+            if (permit == null) {
+                permit = created;
+            }
+        }
+        return permit;
+    }
+
+    // Avvolge lo stream con il decompressore indicato da Content-Encoding; chiudere lo stream restituito libera l'Inflater.
+    // Un corpo vuoto (204, 304, HEAD, Content-Length: 0) non ha l'header gzip/zlib e viene restituito senza decompressore.
+    static InputStream decode(InputStream raw, String contentEncoding) throws IOException {
+        if (contentEncoding == null) {
+            return raw;
+        }
+        String encoding = contentEncoding.trim().toLowerCase();
+        boolean gzip = encoding.equals("gzip") || encoding.equals("x-gzip");
+        if (!gzip && !encoding.equals("deflate")) {
+            return raw;
+        }
+        PushbackInputStream in = new PushbackInputStream(raw, 2);
+        int b0 = in.read();
+        if (b0 == -1) {
+            return raw;
+        }
+        if (gzip) {
+            in.unread(b0);
+            return new GZIPInputStream(in, 8192);
+        }
+        // Alcuni server inviano deflate "raw" invece del formato zlib previsto dallo standard
+        int b1 = in.read();
+        if (b1 != -1) {
+            in.unread(b1);
+        }
+        in.unread(b0);
+        boolean zlib = b1 != -1 && (b0 & 0x0F) == 8 && ((b0 << 8) | b1) % 31 == 0;
+        return new InflaterInputStream(in, new Inflater(!zlib), 8192) {
+            @Override
+            public void close() throws IOException {
+                // close() non termina un Inflater passato al costruttore
+                try {
+                    super.close();
+                } finally {
+                    inf.end();
+                }
+            }
+        };
+    }
+
+    // Legge il corpo in un buffer riutilizzato dal thread e ne restituisce una copia della dimensione esatta
+    private static byte[] readBody(InputStream in, long contentLength) throws IOException {
+        byte[] buffer = BODY_BUFFER.get();
+        if (contentLength > buffer.length && contentLength < Integer.MAX_VALUE - 8) {
+            buffer = new byte[(int) contentLength + 1];
+        }
+
+        int size = 0;
+        int read;
+        while (true) {
+            if (size == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            read = in.read(buffer, size, buffer.length - size);
+            if (read == -1) {
+                break;
+            }
+            size += read;
+        }
+
+        if (buffer.length <= MAX_RETAINED_BUFFER_SIZE) {
+            BODY_BUFFER.set(buffer);
+        }
+        return size == 0 ? EMPTY_BODY : Arrays.copyOf(buffer, size);
+    }
+
+    // Consuma e chiude lo stream: la connessione torna nella cache keep-alive
+    static void drain(InputStream in) {
+        if (in == null) {
+            return;
+        }
+        try {
+            byte[] skip = new byte[4096];
+            while (in.read(skip) != -1) {
+                // scarta
+            }
+        } catch (IOException e) {
+            // la connessione non sara' riutilizzata
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // ignorata
+            }
+        }
+    }
+
+    // Primo valore dell'header, ignorando maiuscole e minuscole nel nome
+    static String headerValue(Map<String, List<String>> headers, String name) {
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            if (entry.getKey() != null && entry.getKey().equalsIgnoreCase(name)
+                    && entry.getValue() != null && !entry.getValue().isEmpty()) {
+                return entry.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+    static Charset charsetOf(String contentType) {
+        if (contentType != null) {
+            for (String part : contentType.split(";")) {
+                String param = part.trim();
+                if (param.regionMatches(true, 0, "charset=", 0, 8)) {
+                    try {
+                        return Charset.forName(param.substring(8).replace("\"", "").trim());
+                    } catch (Exception e) {
+                        break;
+                    }
+                }
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+}
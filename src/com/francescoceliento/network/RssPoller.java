@@ -0,0 +1,340 @@
+package com.francescoceliento.network;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Polls many RSS feeds on a shared scheduler and reports only the items not seen before.
+ * Every request is conditional (If-None-Match / If-Modified-Since), so an unchanged feed costs a
+ * 304 without body. Seen items are kept per feed as a sorted array of 64-bit hashes of guid or link.
+ * The interval of each feed adapts to its update frequency: it halves when new items arrive and
+ * grows when the feed is unchanged or fails, within the configured bounds.
+ * @author @francescoceliento@github.com
+ */
+public class RssPoller implements Closeable {
+
+    public static final long DEFAULT_MIN_INTERVAL = TimeUnit.MINUTES.toMillis(5);
+    public static final long DEFAULT_MAX_INTERVAL = TimeUnit.HOURS.toMillis(6);
+    public static final int DEFAULT_THREADS = 4;
+
+    private static final long[] NO_HASHES = new long[0];
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    private final Listener listener;
+    private final HttpClient client;
+    private final long minInterval;
+    private final long maxInterval;
+    private final ScheduledExecutorService scheduler;
+    private final Map<String, Feed> feeds = new ConcurrentHashMap<>();
+    private volatile boolean emitInitialItems;
+    private volatile boolean closed;
+
+    /**
+     * Receives the new items of the feeds. Called on the poller threads.
+     * @author @francescoceliento@github.com
+     */
+    public interface Listener {
+        void onNewItems(String feedUrl, List<RssReader.RssItem> items);
+
+        default void onError(String feedUrl, Exception error) {
+        }
+    }
+
+    // Stato di un feed: validatori HTTP, elementi visti e intervallo corrente, protetti dal lock del feed
+    private static final class Feed {
+        final String url;
+        // Una sola richiesta alla volta per feed; tenuto durante la rete, a differenza del lock dello stato
+        final Object pollLock = new Object();
+        String etag;
+        String lastModified;
+        long[] seen = NO_HASHES;
+        boolean initialized;
+        long interval;
+        volatile ScheduledFuture<?> next;
+        volatile boolean removed;
+
+        Feed(String url, long interval) {
+            this.url = url;
+            this.interval = interval;
+        }
+    }
+
+    /**
+     * Creates a poller with the default intervals and threads.
+     * @author @francescoceliento@github.com
+     *
+     * @param listener
+     */
+    public RssPoller(Listener listener) {
+        this(listener, DEFAULT_MIN_INTERVAL, DEFAULT_MAX_INTERVAL, DEFAULT_THREADS);
+    }
+
+    /**
+     * Creates a poller with the given interval bounds in milliseconds and number of threads.
+     * @author @francescoceliento@github.com
+     *
+     * @param listener
+     * @param minInterval
+     * @param maxInterval
+     * @param threads
+     */
+    public RssPoller(Listener listener, long minInterval, long maxInterval, int threads) {
+        if (listener == null) {
+            throw new IllegalArgumentException("The listener cannot be null.");
+        }
+        if (minInterval < 1 || maxInterval < minInterval || threads < 1) {
+            throw new IllegalArgumentException("Invalid intervals or number of threads.");
+        }
+        this.listener = listener;
+        this.client = new HttpClient();
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval;
+        this.scheduler = Executors.newScheduledThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "saria-rss-" + THREAD_COUNTER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * If true, the items found at the first poll of a feed are reported as new;
+     * by default they only fill the seen set.
+     * @author @francescoceliento@github.com
+     *
+     * @param emitInitialItems
+     */
+    public void setEmitInitialItems(boolean emitInitialItems) {
+        this.emitInitialItems = emitInitialItems;
+    }
+
+    /**
+     * Adds a feed. The first poll happens within the minimum interval, spread at random
+     * so that many feeds added together do not hit the network at the same moment.
+     * @author @francescoceliento@github.com
+     *
+     * @param url
+     * @return false if the feed was already present
+     */
+    public boolean addFeed(String url) {
+        if (url == null || url.trim().isEmpty()) {
+            throw new IllegalArgumentException("The URL cannot be empty.");
+        }
+        if (closed) {
+            throw new IllegalStateException("The poller has been closed.");
+        }
+        Feed feed = new Feed(url, minInterval);
+        if (feeds.putIfAbsent(url, feed) != null) {
+            return false;
+        }
+        schedule(feed, ThreadLocalRandom.current().nextLong(Math.max(1, minInterval / 10)));
+        return true;
+    }
+
+    /**
+     * Removes a feed and cancels its next poll.
+     * @author @francescoceliento@github.com
+     *
+     * @param url
+     * @return false if the feed was not present
+     */
+    public boolean removeFeed(String url) {
+        Feed feed = feeds.remove(url);
+        if (feed == null) {
+            return false;
+        }
+        feed.removed = true;
+        ScheduledFuture<?> next = feed.next;
+        if (next != null) {
+            next.cancel(false);
+        }
+        return true;
+    }
+
+    public List<String> getFeeds() {
+        return new ArrayList<>(feeds.keySet());
+    }
+
+    /**
+     * Returns the current polling interval of a feed in milliseconds, -1 if the feed is not present.
+     * @author @francescoceliento@github.com
+     *
+     * @param url
+     * @return long
+     */
+    public long getInterval(String url) {
+        Feed feed = feeds.get(url);
+        if (feed == null) {
+            return -1;
+        }
+        synchronized (feed) {
+            return feed.interval;
+        }
+    }
+
+    /**
+     * Polls a feed immediately on the calling thread and returns its new items,
+     * which are also passed to the listener.
+     * @author @francescoceliento@github.com
+     *
+     * @param url
+     * @return List<RssReader.RssItem>
+     * @throws IOException
+     * @throws RssReader.RssReadException
+     */
+    public List<RssReader.RssItem> pollNow(String url) throws IOException, RssReader.RssReadException {
+        Feed feed = feeds.get(url);
+        if (feed == null) {
+            throw new IllegalArgumentException("Feed not registered: " + url);
+        }
+        List<RssReader.RssItem> items = poll(feed);
+        if (!items.isEmpty()) {
+            listener.onNewItems(feed.url, items);
+        }
+        return items;
+    }
+
+    /**
+     * Stops polling and cancels the scheduled polls.
+     * @author @francescoceliento@github.com
+     */
+    @Override
+    public void close() {
+        closed = true;
+        scheduler.shutdownNow();
+    }
+
+    private void schedule(Feed feed, long delay) {
+        if (closed || feed.removed) {
+            return;
+        }
+        try {
+            feed.next = scheduler.schedule(() -> run(feed), delay, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            // scheduler chiuso
+        }
+    }
+
+    private void run(Feed feed) {
+        if (feed.removed) {
+            return;
+        }
+        List<RssReader.RssItem> items = Collections.emptyList();
+        try {
+            items = poll(feed);
+        } catch (Exception e) {
+            synchronized (feed) {
+                feed.interval = Math.min(maxInterval, feed.interval * 2);
+            }
+            try {
+                listener.onError(feed.url, e);
+            } catch (RuntimeException listenerError) {
+                System.err.println("Errore del listener per il feed " + feed.url + ": " + listenerError);
+            }
+        }
+        if (!items.isEmpty()) {
+            // Un errore del listener non e' un errore del feed: non cambia l'intervallo
+            try {
+                listener.onNewItems(feed.url, items);
+            } catch (RuntimeException e) {
+                System.err.println("Errore del listener per il feed " + feed.url + ": " + e);
+            }
+        }
+        long delay;
+        synchronized (feed) {
+            delay = feed.interval;
+        }
+        schedule(feed, delay);
+    }
+
+    // Richiesta condizionale, parsing e confronto con gli elementi gia' visti.
+    // Il lock dello stato e' tenuto solo per leggerlo e aggiornarlo, mai durante la richiesta
+    private List<RssReader.RssItem> poll(Feed feed) throws IOException, RssReader.RssReadException {
+        synchronized (feed.pollLock) {
+            Map<String, String> headers = new HashMap<>(4);
+            synchronized (feed) {
+                if (feed.etag != null) {
+                    headers.put("If-None-Match", feed.etag);
+                }
+                if (feed.lastModified != null) {
+                    headers.put("If-Modified-Since", feed.lastModified);
+                }
+            }
+            HttpClient.Response response = client.execute("GET", feed.url, headers);
+
+            if (response.getStatusCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                synchronized (feed) {
+                    feed.interval = Math.min(maxInterval, feed.interval + feed.interval / 2);
+                }
+                return Collections.emptyList();
+            }
+            if (response.getStatusCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + response.getStatusCode() + " from " + feed.url);
+            }
+
+            List<RssReader.RssItem> items = new ArrayList<>();
+            RssReader.parse(new ByteArrayInputStream(response.getBody()), Integer.MAX_VALUE, items::add);
+            long[] hashes = new long[items.size()];
+            for (int i = 0; i < items.size(); i++) {
+                hashes[i] = hash(items.get(i));
+            }
+
+            synchronized (feed) {
+                // L'insieme dei visti diventa quello degli elementi presenti nel feed:
+                // un elemento uscito dal feed non vi rientra, cosi' l'array resta piccolo
+                List<RssReader.RssItem> fresh = new ArrayList<>();
+                for (int i = 0; i < items.size(); i++) {
+                    if (Arrays.binarySearch(feed.seen, hashes[i]) < 0) {
+                        fresh.add(items.get(i));
+                    }
+                }
+                Arrays.sort(hashes);
+                boolean report = feed.initialized || emitInitialItems;
+                feed.seen = hashes;
+                feed.initialized = true;
+                feed.etag = response.getHeader("ETag");
+                feed.lastModified = response.getHeader("Last-Modified");
+
+                if (fresh.isEmpty() || !report) {
+                    feed.interval = Math.min(maxInterval, feed.interval + feed.interval / 2);
+                    return Collections.emptyList();
+                }
+                feed.interval = Math.max(minInterval, feed.interval / 2);
+                return fresh;
+            }
+        }
+    }
+
+    // FNV-1a a 64 bit della chiave dell'elemento: guid, altrimenti link, altrimenti titolo e data
+    private static long hash(RssReader.RssItem item) {
+        String key = item.getGuid();
+        if (key == null) {
+            key = item.getLink();
+        }
+        if (key == null) {
+            key = item.getTitle() + '\n' + item.getPubDate();
+        }
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.trim().getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+}
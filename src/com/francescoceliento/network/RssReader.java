@@ -1,25 +1,47 @@
 package com.francescoceliento.network;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.net.URL;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import java.net.URLConnection;
+import com.francescoceliento.converter.DateConverter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 public class RssReader {
 
+    // Factory condivisa (thread-safe una volta configurata); DTD ed entità esterne disabilitate
+    private static final XMLInputFactory XML_FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        XML_FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        XML_FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        XML_FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+    }
+
+    private static final String ATOM_NS = "http://www.w3.org/2005/Atom";
+    private static final String RSS1_NS = "http://purl.org/rss/1.0/";
+    private static final String RSS090_NS = "http://my.netscape.com/rdf/simple/0.9/";
+    private static final String RDF_NS = "http://www.w3.org/1999/02/22-rdf-syntax-ns#";
+    private static final String DC_NS = "http://purl.org/dc/elements/1.1/";
+
     private URL url;
 
-    // Oggetto item
+    // Oggetto item (RSS 2.0, RSS 1.0 o entry Atom)
     public static class RssItem {
+        // Valore di getPubDateMillis() se la data manca o non è valida
+        public static final long NO_DATE = DateConverter.INVALID_TIME;
+
         private String title;
         private String link;
         private String description;
         private String pubDate;
+        private long pubDateMillis = NO_DATE;
+        private String guid;
 
         public RssItem() {
         }
@@ -40,6 +62,15 @@ public class RssReader {
             return pubDate;
         }
 
+        // Data di pubblicazione in millisecondi epoch, parsificata una sola volta (RFC 822 o RFC 3339)
+        public long getPubDateMillis() {
+            return pubDateMillis;
+        }
+
+        public String getGuid() {
+            return guid;
+        }
+
         public void setTitle(String title) {
             this.title = title;
         }
@@ -54,6 +85,11 @@ public class RssReader {
 
         public void setPubDate(String pubDate) {
             this.pubDate = pubDate;
+            this.pubDateMillis = DateConverter.parseInternetDate(pubDate);
+        }
+
+        public void setGuid(String guid) {
+            this.guid = guid;
         }
 
         @Override
@@ -90,57 +126,212 @@ public class RssReader {
      * @throws RssReadException
      */
     public List<RssItem> read() throws IllegalStateException, RssReadException {
+        return read(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Legge i primi maxItems elementi del feed RSS dall'URL configurato.
+     * Il feed viene letto in streaming e la connessione chiusa appena raggiunto il limite.
+     * @param maxItems
+     * @return
+     * @throws IllegalStateException
+     * @throws RssReadException
+     */
+    public List<RssItem> read(int maxItems) throws IllegalStateException, RssReadException {
+        List<RssItem> items = new ArrayList<>();
+        read(maxItems, items::add);
+        return items;
+    }
+
+    /**
+     * Legge il feed RSS dall'URL configurato passando ogni elemento all'handler appena parsificato,
+     * senza costruire l'albero del documento: la memoria usata non dipende dalla dimensione del feed.
+     * La lettura si ferma dopo maxItems elementi o quando l'handler restituisce false.
+     * @param maxItems
+     * @param handler
+     * @return il numero di elementi passati all'handler
+     * @throws IllegalStateException
+     * @throws RssReadException
+     */
+    public int read(int maxItems, RssItemHandler handler) throws IllegalStateException, RssReadException {
         if (this.url == null) {
             throw new IllegalStateException("L'URL del feed RSS deve essere configurato prima di chiamare read(). Utilizza setUrl().");
         }
-
-        List<RssItem> items = new ArrayList<>();
         try {
-            DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-            
-            DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-            
-            Document doc = dBuilder.parse(this.url.openStream());
-            
-            doc.getDocumentElement().normalize();
-
-            NodeList nList = doc.getElementsByTagName("item");
-
-            for (int temp = 0; temp < nList.getLength(); temp++) {
-                Node nNode = nList.item(temp);
-
-                if (nNode.getNodeType() == Node.ELEMENT_NODE) {
-                    Element eElement = (Element) nNode;
-                    RssItem item = new RssItem();
-
-                    item.setTitle(getTagValue("title", eElement));
-                    item.setLink(getTagValue("link", eElement));
-                    item.setDescription(getTagValue("description", eElement));
-                    item.setPubDate(getTagValue("pubDate", eElement));
+            URLConnection connection = this.url.openConnection();
+            connection.setConnectTimeout(HttpClient.DEFAULT_CONNECT_TIMEOUT);
+            connection.setReadTimeout(HttpClient.DEFAULT_READ_TIMEOUT);
+            try (InputStream in = connection.getInputStream()) {
+                return parse(in, maxItems, handler);
+            }
+        } catch (IOException e) {
+            throw new RssReadException("Errore durante la lettura o il parsing del feed RSS.", e);
+        }
+    }
 
-                    items.add(item);
+    /**
+     * Parsifica in streaming un feed RSS da uno stream, che non viene chiuso.
+     * @param in
+     * @param maxItems
+     * @param handler
+     * @return il numero di elementi passati all'handler
+     * @throws RssReadException
+     */
+    public static int parse(InputStream in, int maxItems, RssItemHandler handler) throws RssReadException {
+        if (in == null || handler == null) {
+            throw new IllegalArgumentException("Lo stream e l'handler non possono essere nulli.");
+        }
+        int count = 0;
+        XMLStreamReader reader = null;
+        try {
+            reader = XML_FACTORY.createXMLStreamReader(in);
+            StringBuilder text = new StringBuilder();
+            while (count < maxItems && reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                String itemNamespace = itemNamespace(reader);
+                if (itemNamespace != null) {
+                    RssItem item = readItem(reader, itemNamespace, text);
+                    count++;
+                    if (!handler.onItem(item)) {
+                        break;
+                    }
                 }
             }
-        } catch (Exception e) {
-            
+        } catch (XMLStreamException e) {
             throw new RssReadException("Errore durante la lettura o il parsing del feed RSS.", e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    // ignorato
+                }
+            }
         }
-        return items;
+        return count;
     }
 
-    // Metodo di utilità per estrarre il valore del testo da un tag XML
-    private String getTagValue(String tag, Element element) {
-        NodeList nodeList = element.getElementsByTagName(tag);
-        if (nodeList.getLength() > 0) {
-            NodeList textList = nodeList.item(0).getChildNodes();
-            if (textList.getLength() > 0) {
-            	
-                return textList.item(0).getNodeValue();
+    // Legge i campi di un elemento (<item> RSS 2.0 e 1.0, <entry> Atom):
+    // il reader è sul tag di apertura e viene lasciato su quello di chiusura
+    private static RssItem readItem(XMLStreamReader reader, String itemNamespace, StringBuilder text) throws XMLStreamException {
+        RssItem item = new RssItem();
+        boolean atom = ATOM_NS.equals(itemNamespace);
+        if (!atom && !itemNamespace.isEmpty()) {
+            // RSS 1.0: l'identificativo è l'attributo rdf:about
+            item.setGuid(reader.getAttributeValue(RDF_NS, "about"));
+        }
+        String date = null;
+        String fallbackDate = null;
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (depth == 1) {
+                    String namespace = namespaceOf(reader);
+                    String name = reader.getLocalName();
+                    if (namespace.equals(itemNamespace)) {
+                        switch (name) {
+                            case "title":
+                                item.setTitle(readText(reader, text));
+                                continue;
+                            case "link":
+                                if (atom) {
+                                    // Atom: href del link "alternate" (o senza rel)
+                                    String rel = reader.getAttributeValue(null, "rel");
+                                    if (rel == null || rel.equals("alternate")) {
+                                        if (item.getLink() == null || rel != null) {
+                                            item.setLink(reader.getAttributeValue(null, "href"));
+                                        }
+                                    }
+                                    readText(reader, text);
+                                } else {
+                                    item.setLink(readText(reader, text));
+                                }
+                                continue;
+                            case "description":
+                            case "summary":
+                                item.setDescription(readText(reader, text));
+                                continue;
+                            case "content":
+                                String content = readText(reader, text);
+                                if (item.getDescription() == null) {
+                                    item.setDescription(content);
+                                }
+                                continue;
+                            case "pubDate":
+                            case "published":
+                                date = readText(reader, text);
+                                continue;
+                            case "updated":
+                                fallbackDate = readText(reader, text);
+                                continue;
+                            case "guid":
+                            case "id":
+                                item.setGuid(readText(reader, text));
+                                continue;
+                            default:
+                                break;
+                        }
+                    } else if (namespace.equals(DC_NS) && name.equals("date")) {
+                        fallbackDate = readText(reader, text);
+                        continue;
+                    }
+                }
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
             }
         }
+        item.setPubDate(date != null ? date : fallbackDate);
+        return item;
+    }
+
+    // Concatena il testo di un elemento (anche di eventuali elementi annidati), null se vuoto
+    private static String readText(XMLStreamReader reader, StringBuilder text) throws XMLStreamException {
+        text.setLength(0);
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE) {
+                text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+            } else if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+        return text.length() > 0 ? text.toString() : null;
+    }
+
+    // Namespace dell'elemento se è l'inizio di un elemento del feed (<item> RSS 2.0 o 1.0, <entry> Atom), altrimenti null
+    private static String itemNamespace(XMLStreamReader reader) {
+        String namespace = namespaceOf(reader);
+        String name = reader.getLocalName();
+        if (name.equals("item") && (namespace.isEmpty() || namespace.equals(RSS1_NS) || namespace.equals(RSS090_NS))) {
+            return namespace;
+        }
+        if (name.equals("entry") && namespace.equals(ATOM_NS)) {
+            return namespace;
+        }
         return null;
     }
 
+    private static String namespaceOf(XMLStreamReader reader) {
+        String namespace = reader.getNamespaceURI();
+        return namespace != null ? namespace : "";
+    }
+
+    // Riceve gli elementi del feed man mano che vengono letti
+    public interface RssItemHandler {
+        /**
+         * @param item
+         * @return false per interrompere la lettura
+         */
+        boolean onItem(RssItem item);
+    }
+
     // Classe di eccezione personalizzata per gli errori di lettura RSS
 	public static class RssReadException extends Exception {
 		private static final long serialVersionUID = 1L;
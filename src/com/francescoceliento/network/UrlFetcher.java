@@ -1,10 +1,13 @@
 package com.francescoceliento.network;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
+import com.francescoceliento.system.LatencyRecorder;
 import com.francescoceliento.validator.JsonValidator;
 
 /**
@@ -13,6 +16,16 @@ import com.francescoceliento.validator.JsonValidator;
  */
 public class UrlFetcher {
 	
+	private static final Map<String, String> JSON_HEADERS = Collections.singletonMap("Accept", "application/json");
+	
+	private static volatile LatencyRecorder latencyRecorder;
+	
+	// Fetcher asincrono condiviso, creato al primo utilizzo
+	private static final class AsyncHolder {
+		static final AsyncUrlFetcher FETCHER = new AsyncUrlFetcher(HttpClient.getDefault(),
+				AsyncUrlFetcher.DEFAULT_MAX_IN_FLIGHT, AsyncUrlFetcher.DEFAULT_MAX_PER_HOST);
+	}
+	
 	/**
 	 * Calls a target URL and receives the body response in String format
 	 * @author @francescoceliento@github.com
@@ -21,29 +34,32 @@ public class UrlFetcher {
 	 * @return
 	 */
 	public static String readUrl(String targetUrl) {
-		StringBuilder result = new StringBuilder();
-        
+		LatencyRecorder recorder = latencyRecorder;
+		long start = System.nanoTime();
         try {
-            URL url = new URL(targetUrl);
-            
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("GET");
-            conn.setRequestProperty("Accept", "application/json");
-
-            int responseCode = conn.getResponseCode();
-            if (responseCode == HttpURLConnection.HTTP_OK) {
-                BufferedReader reader = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    result.append(line);
-                }
-                reader.close();
+            HttpClient.Response response = HttpClient.getDefault().get(targetUrl, JSON_HEADERS);
+            if (response.getStatusCode() == HttpURLConnection.HTTP_OK) {
+                return response.getBodyAsString();
             }
-            
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+        	if (recorder != null) {
+        		recorder.recordSince(start);
+        	}
         }
-        return result.toString();
+        return "";
+	}
+	
+	/**
+	 * Sets the recorder that receives the duration of every call, successful or not; null to disable it.
+	 * For the asynchronous calls the duration includes the time spent waiting for a free connection.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param recorder
+	 */
+	public static void setLatencyRecorder(LatencyRecorder recorder) {
+		latencyRecorder = recorder;
 	}
 	
 	/**
@@ -60,5 +76,48 @@ public class UrlFetcher {
         else
         	return "{}";
     }
+	
+	/**
+	 * Calls a target URL asynchronously and completes with the body response in String format
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param targetUrl
+	 * @return CompletableFuture<String>
+	 */
+	public static CompletableFuture<String> readUrlAsync(String targetUrl) {
+		LatencyRecorder recorder = latencyRecorder;
+		if (recorder == null) {
+			return AsyncHolder.FETCHER.readUrl(targetUrl, JSON_HEADERS);
+		}
+		long start = System.nanoTime();
+		return AsyncHolder.FETCHER.readUrl(targetUrl, JSON_HEADERS).whenComplete((body, error) -> recorder.recordSince(start));
+	}
+	
+	/**
+	 * Calls a list of target URLs asynchronously, with the shared in-flight and per-host limits.
+	 * The futures are in the same order as the URLs.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param targetUrls
+	 * @return List<CompletableFuture<String>>
+	 */
+	public static List<CompletableFuture<String>> readUrlsAsync(List<String> targetUrls) {
+		List<CompletableFuture<String>> futures = new ArrayList<>(targetUrls.size());
+		for (String targetUrl : targetUrls) {
+			futures.add(readUrlAsync(targetUrl));
+		}
+		return futures;
+	}
+	
+	/**
+	 * Calls a target URL asynchronously and completes with the body response in JSON format
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param targetUrl
+	 * @return CompletableFuture<String>
+	 */
+	public static CompletableFuture<String> getJsonResponseAsync(String targetUrl) {
+		return readUrlAsync(targetUrl).thenApply(json -> JsonValidator.isValid(json) ? json : "{}");
+	}
 
 }
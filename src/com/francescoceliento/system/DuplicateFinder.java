@@ -0,0 +1,357 @@
+package com.francescoceliento.system;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finds files with identical content under a directory. The files are filtered in stages and each
+ * stage reads only the candidates left by the previous one: same size, then same SHA-256 of the
+ * first and last 4 KB, then same SHA-256 of the whole content, read through memory mapping.
+ * Files smaller than 8 KB are decided by the second stage, which already reads all their bytes.
+ * Empty files and hard links to the same file are not reported.
+ * @author @francescoceliento@github.com
+ */
+public final class DuplicateFinder {
+
+    private static final int SAMPLE_SIZE = 4 * 1024;
+    // Finestra di mappatura: i file più grandi vengono letti a blocchi
+    private static final long MAP_WINDOW = 64L * 1024 * 1024;
+    private static final String ALGORITHM = "SHA-256";
+    // I/O bloccante: più thread dei core per sovrapporre le attese del disco
+    private static final ForkJoinPool POOL = new ForkJoinPool(Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+
+    private DuplicateFinder() {
+    }
+
+    /**
+     * A set of files with the same content.
+     * @author @francescoceliento@github.com
+     */
+    public static final class Group {
+        private final long size;
+        private final byte[] digest;
+        private final List<Path> files;
+
+        Group(long size, byte[] digest, List<Path> files) {
+            this.size = size;
+            this.digest = digest;
+            this.files = Collections.unmodifiableList(files);
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public List<Path> getFiles() {
+            return files;
+        }
+
+        /**
+         * Returns the SHA-256 of the content in lowercase hexadecimal.
+         * @author @francescoceliento@github.com
+         *
+         * @return String
+         */
+        public String getDigestHex() {
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        }
+
+        /**
+         * Returns the bytes that would be freed keeping only one copy.
+         * @author @francescoceliento@github.com
+         *
+         * @return long
+         */
+        public long getWastedBytes() {
+            return size * (files.size() - 1);
+        }
+
+        @Override
+        public String toString() {
+            return size + " bytes x " + files.size() + " " + files;
+        }
+    }
+
+    /**
+     * Outcome of a search: the duplicate groups, ordered by wasted bytes, and the cost of the search.
+     * @author @francescoceliento@github.com
+     */
+    public static final class Result {
+        private final List<Group> groups;
+        private final int filesScanned;
+        private final int filesSkipped;
+        private final long bytesRead;
+
+        Result(List<Group> groups, int filesScanned, int filesSkipped, long bytesRead) {
+            this.groups = Collections.unmodifiableList(groups);
+            this.filesScanned = filesScanned;
+            this.filesSkipped = filesSkipped;
+            this.bytesRead = bytesRead;
+        }
+
+        public List<Group> getGroups() {
+            return groups;
+        }
+
+        public int getFilesScanned() {
+            return filesScanned;
+        }
+
+        /**
+         * Returns the number of candidate files that could not be read.
+         * @author @francescoceliento@github.com
+         *
+         * @return int
+         */
+        public int getFilesSkipped() {
+            return filesSkipped;
+        }
+
+        /**
+         * Returns the bytes read to compute the digests.
+         * @author @francescoceliento@github.com
+         *
+         * @return long
+         */
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        public long getWastedBytes() {
+            long wasted = 0;
+            for (Group group : groups) {
+                wasted += group.getWastedBytes();
+            }
+            return wasted;
+        }
+    }
+
+    // Un file candidato con la sua dimensione
+    private static final class Candidate {
+        final Path path;
+        final long size;
+
+        Candidate(Path path, long size) {
+            this.path = path;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Finds the duplicate files in the whole tree under root.
+     * @author @francescoceliento@github.com
+     *
+     * @param root
+     * @return Result
+     * @throws IOException if root cannot be read
+     */
+    public static Result find(Path root) throws IOException {
+        return find(root, null);
+    }
+
+    /**
+     * Finds the duplicate files under root among the files accepted by the query.
+     * @author @francescoceliento@github.com
+     *
+     * @param root
+     * @param query the files to compare, null for all the files
+     * @return Result
+     * @throws IOException if root cannot be read
+     */
+    public static Result find(Path root, FileQuery.Matcher query) throws IOException {
+        // 1. Un solo attraversamento: dimensioni dagli attributi già letti dal walker
+        ConcurrentLinkedQueue<Candidate> files = new ConcurrentLinkedQueue<>();
+        Set<Object> fileKeys = ConcurrentHashMap.newKeySet();
+        AtomicInteger scanned = new AtomicInteger();
+        ParallelFileWalker.walk(root, query != null ? query.getMaxDepth() : Integer.MAX_VALUE, Integer.MAX_VALUE,
+                (path, attributes, depth) -> {
+                    if (attributes.size() > 0 && (query == null || query.matches(path, attributes, depth))) {
+                        scanned.incrementAndGet();
+                        if (isFirstLink(attributes, fileKeys)) {
+                            files.add(new Candidate(path, attributes.size()));
+                        }
+                    }
+                    return false;
+                });
+
+        Map<Long, List<Candidate>> bySize = new HashMap<>();
+        for (Candidate file : files) {
+            bySize.computeIfAbsent(file.size, k -> new ArrayList<>()).add(file);
+        }
+
+        // 2. Hash dei primi e ultimi 4 KB, solo per le dimensioni ripetute
+        AtomicLong bytesRead = new AtomicLong();
+        AtomicInteger skipped = new AtomicInteger();
+        List<Candidate> sampled = sameSize(bySize);
+        Map<DigestKey, List<Candidate>> bySample = digestAll(sampled, true, bytesRead, skipped);
+
+        // 3. Hash completo per i candidati rimasti; sotto gli 8 KB il campione copre già tutto il file
+        List<Group> groups = new ArrayList<>();
+        List<Candidate> fullCandidates = new ArrayList<>();
+        for (Map.Entry<DigestKey, List<Candidate>> entry : bySample.entrySet()) {
+            List<Candidate> group = entry.getValue();
+            if (group.size() < 2) {
+                continue;
+            }
+            if (group.get(0).size <= 2 * SAMPLE_SIZE) {
+                groups.add(toGroup(entry.getKey().digest, group));
+            } else {
+                fullCandidates.addAll(group);
+            }
+        }
+        for (Map.Entry<DigestKey, List<Candidate>> entry : digestAll(fullCandidates, false, bytesRead, skipped).entrySet()) {
+            if (entry.getValue().size() > 1) {
+                groups.add(toGroup(entry.getKey().digest, entry.getValue()));
+            }
+        }
+        groups.sort((a, b) -> Long.compare(b.getWastedBytes(), a.getWastedBytes()));
+        return new Result(groups, scanned.get(), skipped.get(), bytesRead.get());
+    }
+
+    private static boolean isFirstLink(BasicFileAttributes attributes, Set<Object> fileKeys) {
+        Object fileKey = attributes.fileKey();
+        return fileKey == null || fileKeys.add(fileKey);
+    }
+
+    private static List<Candidate> sameSize(Map<Long, List<Candidate>> bySize) {
+        List<Candidate> candidates = new ArrayList<>();
+        for (List<Candidate> group : bySize.values()) {
+            if (group.size() > 1) {
+                candidates.addAll(group);
+            }
+        }
+        return candidates;
+    }
+
+    private static Group toGroup(byte[] digest, List<Candidate> candidates) {
+        List<Path> paths = new ArrayList<>(candidates.size());
+        for (Candidate candidate : candidates) {
+            paths.add(candidate.path);
+        }
+        Collections.sort(paths);
+        return new Group(candidates.get(0).size, digest, paths);
+    }
+
+    // Calcola in parallelo l'hash dei candidati e li raggruppa per (dimensione, hash)
+    private static Map<DigestKey, List<Candidate>> digestAll(List<Candidate> candidates, boolean sample, AtomicLong bytesRead, AtomicInteger skipped) throws IOException {
+        Map<DigestKey, List<Candidate>> groups = new ConcurrentHashMap<>();
+        if (candidates.isEmpty()) {
+            return groups;
+        }
+        try {
+            POOL.submit(() -> candidates.parallelStream().forEach(candidate -> {
+                try {
+                    byte[] digest = sample ? sampleDigest(candidate, bytesRead) : fullDigest(candidate, bytesRead);
+                    groups.computeIfAbsent(new DigestKey(candidate.size, digest), k -> Collections.synchronizedList(new ArrayList<>()))
+                            .add(candidate);
+                } catch (IOException e) {
+                    // file rimosso o non leggibile durante la ricerca
+                    skipped.incrementAndGet();
+                }
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Duplicate search interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Duplicate search failed: " + e.getCause(), e.getCause());
+        }
+        return groups;
+    }
+
+    private static byte[] sampleDigest(Candidate candidate, AtomicLong bytesRead) throws IOException {
+        MessageDigest digest = newDigest();
+        try (FileChannel channel = FileChannel.open(candidate.path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(2 * SAMPLE_SIZE);
+            long size = candidate.size;
+            if (size <= 2 * SAMPLE_SIZE) {
+                readFully(channel, buffer, 0, (int) size);
+            } else {
+                readFully(channel, buffer, 0, SAMPLE_SIZE);
+                readFully(channel, buffer, size - SAMPLE_SIZE, SAMPLE_SIZE);
+            }
+            buffer.flip();
+            bytesRead.addAndGet(buffer.remaining());
+            digest.update(buffer);
+        }
+        return digest.digest();
+    }
+
+    private static byte[] fullDigest(Candidate candidate, AtomicLong bytesRead) throws IOException {
+        MessageDigest digest = newDigest();
+        try (FileChannel channel = FileChannel.open(candidate.path, StandardOpenOption.READ)) {
+            long size = Math.min(candidate.size, channel.size());
+            for (long position = 0; position < size; position += MAP_WINDOW) {
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW, size - position));
+                bytesRead.addAndGet(window.remaining());
+                digest.update(window);
+            }
+        }
+        return digest.digest();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position, int length) throws IOException {
+        buffer.limit(buffer.position() + length);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + length - buffer.remaining());
+            if (read < 0) {
+                throw new IOException("File truncated during the search");
+            }
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 è garantito da ogni JVM
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Chiave di raggruppamento: dimensione e hash
+    private static final class DigestKey {
+        final long size;
+        final byte[] digest;
+
+        DigestKey(long size, byte[] digest) {
+            this.size = size;
+            this.digest = digest;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof DigestKey && ((DigestKey) other).size == size
+                    && MessageDigest.isEqual(((DigestKey) other).digest, digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(size) * 31 + Arrays.hashCode(digest);
+        }
+    }
+
+}
@@ -4,7 +4,10 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.stream.Stream;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 public class Explorer {
 	
@@ -42,78 +45,217 @@ public class Explorer {
             return false;
         }
 
-        // 2. Preparazione della Chiave di Ricerca (Gestione Case)
-        final String searchKey;
-        if (typeSearch == TypeSearch.CASEINSENSITIVE) {
-            searchKey = search.toLowerCase();
-        } else {
-            searchKey = search;
+        // 2. Ricerca parallela che si ferma al primo file trovato
+        try {
+            return !ParallelFileWalker.walk(startPath, subFolder ? Integer.MAX_VALUE : 1, 1,
+                    NameMatcher.compile(search, ext, typeSearch, include)).isEmpty();
+        } catch (IOException e) {
+            System.err.println("Si è verificato un errore durante l'attraversamento delle directory: " + e.getMessage());
+            return false;
         }
+    }
 
-        // 3. Preparazione dell'Estensione (Gestione Wildcard e Lowercase)
-        final String normalizedExt;
-        final boolean searchAnyExt = (ext == null || ext.trim().isEmpty() || ext.trim().equals("*"));
-        
-        if (searchAnyExt) {
-            normalizedExt = "";
-        } else {
-            String trimmedExt = ext.trim().toLowerCase();
-            // Assicura che l'estensione inizi con un punto per un confronto coerente
-            normalizedExt = trimmedExt.startsWith(".") ? trimmedExt : "." + trimmedExt;
+    /**
+     * Verifica l'esistenza di un file che soddisfi i criteri specificati usando un indice già aperto
+     * sulla cartella, senza riattraversare l'albero.
+     *
+     * @param index      L'indice della cartella di partenza (vedi FileIndex.open).
+     * @param search     Il testo da cercare nel nome del file.
+     * @param ext        L'estensione del file (es. "txt", "pdf", o "*").
+     * @param typeSearch Enum che definisce se la ricerca è case-sensitive o case-insensitive.
+     * @param include    Enum che definisce se cercare corrispondenza esatta, se contenere, o se escludere la stringa.
+     * @param subFolder  Se true, la ricerca comprende tutte le sottocartelle.
+     * @return           true se nell'indice c'è almeno un file che soddisfa i criteri, altrimenti false.
+     */
+    public static boolean fileExist(FileIndex index, String search, String ext, TypeSearch typeSearch, Include include, boolean subFolder) {
+        if (index == null) {
+            return false;
         }
+        return index.contains(NameMatcher.compile(search, ext, typeSearch, include), subFolder);
+    }
+
+    /**
+     * Cerca i file che soddisfano i criteri specificati. Le cartelle vengono esplorate in parallelo
+     * e la ricerca si ferma appena trovati maxResults file; l'ordine dei risultati non è definito.
+     *
+     * @param dir        La cartella di partenza per la ricerca.
+     * @param search     Il testo da cercare nel nome del file.
+     * @param ext        L'estensione del file (es. "txt", "pdf", o "*").
+     * @param typeSearch Enum che definisce se la ricerca è case-sensitive o case-insensitive.
+     * @param include    Enum che definisce se cercare corrispondenza esatta, se contenere, o se escludere la stringa.
+     * @param subFolder  Se true, la ricerca è ricorsiva in tutte le sottocartelle.
+     * @param maxResults Numero massimo di file restituiti.
+     * @return           I file trovati, lista vuota se nessuno o in caso di errore.
+     */
+    public static List<Path> search(String dir, String search, String ext, TypeSearch typeSearch, Include include, boolean subFolder, int maxResults) {
+        return search(dir, NameMatcher.compile(search, ext, typeSearch, include), subFolder, maxResults);
+    }
+
+    /**
+     * Cerca i file il cui nome soddisfa un matcher già compilato, riutilizzabile tra più ricerche.
+     *
+     * @param dir        La cartella di partenza per la ricerca.
+     * @param matcher    Il matcher del nome (vedi NameMatcher.compile).
+     * @param subFolder  Se true, la ricerca è ricorsiva in tutte le sottocartelle.
+     * @param maxResults Numero massimo di file restituiti.
+     * @return           I file trovati, lista vuota se nessuno o in caso di errore.
+     */
+    public static List<Path> search(String dir, NameMatcher matcher, boolean subFolder, int maxResults) {
+        return walk(dir, subFolder ? Integer.MAX_VALUE : 1, maxResults, matcher);
+    }
+
+    /**
+     * Cerca i file che soddisfano una FileQuery compilata (estensioni multiple, glob, regex,
+     * dimensione, data di modifica, profondità) in un solo attraversamento parallelo.
+     *
+     * @param dir        La cartella di partenza per la ricerca.
+     * @param query      La query compilata (vedi FileQuery.compile).
+     * @param maxResults Numero massimo di file restituiti.
+     * @return           I file trovati, lista vuota se nessuno o in caso di errore.
+     */
+    public static List<Path> search(String dir, FileQuery.Matcher query, int maxResults) {
+        return walk(dir, query.getMaxDepth(), maxResults, query);
+    }
 
-        // 4. Impostazione della Profondità (Ricorsività)
-        final int maxDepth = subFolder ? Integer.MAX_VALUE : 1;
-
-        // 5. Esecuzione della Ricerca
-        try (Stream<Path> stream = Files.walk(startPath, maxDepth)) {
-            return stream
-                .filter(Files::isRegularFile) // Filtra solo i file regolari
-                .anyMatch(path -> {
-                    String fileName = path.getFileName().toString();
-                    
-                    // Prepara il nome del file per il confronto in base al TypeSearch
-                    final String fileToCompare;
-                    if (typeSearch == TypeSearch.CASEINSENSITIVE) {
-                        fileToCompare = fileName.toLowerCase();
-                    } else {
-                        fileToCompare = fileName;
-                    }
-                    
-                    // --- 5a. Verifica dell'Estensione ---
-                    if (!searchAnyExt) {
-                        // Se non è il wildcard '*', l'estensione deve corrispondere (gestita in lowercase)
-                        if (!fileToCompare.toLowerCase().endsWith(normalizedExt)) {
-                            return false;
-                        }
-                    }
-
-                    // --- 5b. Verifica del Nome in base al parametro Include ---
-                    boolean match = false;
-                    
-                    switch (include) {
-                        case EXACTLY:
-                            // La logica EXACTLY deve confrontare searchKey + normalizedExt (se ext non è '*')
-                            String expectedName = searchKey + (searchAnyExt ? "" : normalizedExt);
-                            match = fileToCompare.equals(expectedName);
-                            break;
-                            
-                        case CONTAINS:
-                            match = fileToCompare.contains(searchKey);
-                            break;
-                            
-                        case EXCLUDE:
-                            // Troviamo un file se NON contiene la chiave di ricerca
-                            // Quindi, il match è true se la chiave NON è contenuta
-                            match = !fileToCompare.contains(searchKey);
-                            break;
-                    }
-                    
-                    return match;
-                });
+    /**
+     * Verifica l'esistenza di un file che soddisfi una FileQuery compilata.
+     *
+     * @param dir        La cartella di partenza per la ricerca.
+     * @param query      La query compilata (vedi FileQuery.compile).
+     * @return           true se viene trovato almeno un file che soddisfa la query, altrimenti false.
+     */
+    public static boolean fileExist(String dir, FileQuery.Matcher query) {
+        return !search(dir, query, 1).isEmpty();
+    }
 
+    /**
+     * Verifica più query con un solo attraversamento della cartella, invece di una chiamata
+     * a fileExist per ognuna. La ricerca si ferma appena tutte le query sono soddisfatte.
+     *
+     * @param dir        La cartella di partenza per la ricerca.
+     * @param queries    Le query compilate (vedi FileQuery.compile).
+     * @return           Per ogni query, true se esiste almeno un file che la soddisfa.
+     */
+    public static boolean[] fileExistAll(String dir, FileQuery.Matcher... queries) {
+        final AtomicIntegerArray found = new AtomicIntegerArray(queries.length);
+        int maxDepth = 1;
+        for (FileQuery.Matcher query : queries) {
+            maxDepth = Math.max(maxDepth, query.getMaxDepth());
+        }
+        // ogni file viene contato solo quando soddisfa per primo una query: il walker si ferma a queries.length
+        walk(dir, maxDepth, queries.length, (path, attributes, depth) -> {
+            boolean first = false;
+            for (int i = 0; i < queries.length; i++) {
+                if (found.get(i) == 0 && queries[i].matches(path, attributes, depth) && found.compareAndSet(i, 0, 1)) {
+                    first = true;
+                }
+            }
+            return first;
+        });
+        boolean[] result = new boolean[queries.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = found.get(i) == 1;
+        }
+        return result;
+    }
+
+    private static List<Path> walk(String dir, int maxDepth, int maxResults, ParallelFileWalker.EntryMatcher matcher) {
+        if (dir == null || dir.trim().isEmpty()) {
+            return new ArrayList<>();
+        }
+        Path startPath = Paths.get(dir);
+        if (!Files.isDirectory(startPath)) {
+            System.err.println("Errore: Il percorso specificato non è una directory valida: " + dir);
+            return new ArrayList<>();
+        }
+        try {
+            return ParallelFileWalker.walk(startPath, maxDepth, maxResults, matcher);
         } catch (IOException e) {
             System.err.println("Si è verificato un errore durante l'attraversamento delle directory: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Criteri di ricerca sul nome del file compilati una sola volta: chiave ed estensione normalizzate,
+     * confronto senza creare stringhe per ogni file (regionMatches al posto di toLowerCase).
+     */
+    public static final class NameMatcher implements ParallelFileWalker.EntryMatcher {
+        private final String searchKey;
+        private final String extension;     // con il punto iniziale, "" per qualsiasi estensione
+        private final String exactName;     // nome atteso per EXACTLY
+        private final boolean ignoreCase;
+        private final Include include;
+
+        private NameMatcher(String searchKey, String extension, boolean ignoreCase, Include include) {
+            this.searchKey = searchKey;
+            this.extension = extension;
+            this.exactName = searchKey + extension;
+            this.ignoreCase = ignoreCase;
+            this.include = include;
+        }
+
+        /**
+         * Compila i criteri di ricerca con la stessa semantica di fileExist.
+         *
+         * @param search     Il testo da cercare nel nome del file.
+         * @param ext        L'estensione del file (es. "txt", "pdf", o "*"), confrontata senza distinzione di maiuscole.
+         * @param typeSearch Enum che definisce se la ricerca è case-sensitive o case-insensitive.
+         * @param include    Enum che definisce se cercare corrispondenza esatta, se contenere, o se escludere la stringa.
+         * @return           Il matcher compilato.
+         */
+        public static NameMatcher compile(String search, String ext, TypeSearch typeSearch, Include include) {
+            if (include == null) {
+                throw new IllegalArgumentException("Il parametro include non può essere nullo.");
+            }
+            boolean ignoreCase = typeSearch == TypeSearch.CASEINSENSITIVE;
+            String searchKey = search == null ? "" : ignoreCase ? search.toLowerCase() : search;
+            String extension = "";
+            if (ext != null && !ext.trim().isEmpty() && !ext.trim().equals("*")) {
+                String trimmedExt = ext.trim().toLowerCase();
+                extension = trimmedExt.startsWith(".") ? trimmedExt : "." + trimmedExt;
+            }
+            return new NameMatcher(searchKey, extension, ignoreCase, include);
+        }
+
+        /**
+         * Verifica se il nome del file soddisfa i criteri.
+         *
+         * @param fileName Il nome del file (senza percorso).
+         * @return         true se il nome soddisfa i criteri.
+         */
+        public boolean matches(String fileName) {
+            // L'estensione è sempre confrontata senza distinzione di maiuscole
+            if (!extension.isEmpty() && !fileName.regionMatches(true, fileName.length() - extension.length(), extension, 0, extension.length())) {
+                return false;
+            }
+            switch (include) {
+                case EXACTLY:
+                    return ignoreCase ? fileName.equalsIgnoreCase(exactName) : fileName.equals(exactName);
+                case CONTAINS:
+                    return contains(fileName);
+                case EXCLUDE:
+                    return !contains(fileName);
+                default:
+                    return false;
+            }
+        }
+
+        @Override
+        public boolean matches(Path path, BasicFileAttributes attributes, int depth) {
+            return matches(path.getFileName().toString());
+        }
+
+        private boolean contains(String fileName) {
+            if (!ignoreCase) {
+                return fileName.contains(searchKey);
+            }
+            int last = fileName.length() - searchKey.length();
+            for (int i = 0; i <= last; i++) {
+                if (fileName.regionMatches(true, i, searchKey, 0, searchKey.length())) {
+                    return true;
+                }
+            }
             return false;
         }
     }
@@ -0,0 +1,437 @@
+package com.francescoceliento.system;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Index of the names and sizes of the files under a root directory, so that repeated searches do
+ * not walk the tree again. The index is stored in a compact binary file read with a single bulk read
+ * when it is opened, then it is kept current by a background thread through a WatchService: an index loaded from
+ * disk is answered immediately and rescanned in background to pick up the changes made while
+ * it was closed.
+ * The WatchService receives only the changes made through the local machine: on network shares
+ * (NFS, SMB) call refresh() periodically to pick up the changes made by other hosts.
+ * @author @francescoceliento@github.com
+ */
+public final class FileIndex implements Closeable {
+
+    private static final int MAGIC = 0x53464958; // "SFIX"
+    private static final int VERSION = 1;
+    // Secondi senza eventi prima di salvare su disco le modifiche
+    private static final long SAVE_DELAY_SECONDS = 5;
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    private final Path root;
+    private final Path indexFile;
+    private final String separator;
+    private final WatchService watcher;
+    private final Map<WatchKey, Path> watchedDirectories = new ConcurrentHashMap<>();
+    private final Object updateLock = new Object();
+    private final Thread watchThread;
+    // Percorso relativo alla radice -> file; sostituita per intero a ogni scansione completa
+    private volatile ConcurrentHashMap<String, Entry> entries;
+    private volatile boolean dirty;
+    private volatile boolean closed;
+    // Indice letto da disco: va riallineato e le cartelle non sono ancora registrate
+    private boolean stale;
+
+    private static final class Entry {
+        final String name;
+        final long size;
+        final int depth;
+
+        Entry(String name, long size, int depth) {
+            this.name = name;
+            this.size = size;
+            this.depth = depth;
+        }
+    }
+
+    private FileIndex(Path root, Path indexFile) throws IOException {
+        this.root = root;
+        this.indexFile = indexFile;
+        this.separator = root.getFileSystem().getSeparator();
+        this.watcher = root.getFileSystem().newWatchService();
+        this.watchThread = new Thread(this::watchLoop, "saria-index-" + THREAD_COUNTER.incrementAndGet());
+        this.watchThread.setDaemon(true);
+    }
+
+    /**
+     * Opens the index of root stored in indexFile. If the file does not exist, is not valid or
+     * belongs to another root, the tree is scanned and the index is written before returning.
+     * @author @francescoceliento@github.com
+     *
+     * @param root
+     * @param indexFile
+     * @return FileIndex
+     * @throws IOException
+     */
+    public static FileIndex open(Path root, Path indexFile) throws IOException {
+        Path normalizedRoot = root.toAbsolutePath().normalize();
+        if (!Files.isDirectory(normalizedRoot)) {
+            throw new IOException("Not a directory: " + root);
+        }
+        FileIndex index = new FileIndex(normalizedRoot, indexFile.toAbsolutePath());
+        try {
+            index.entries = index.load();
+            index.stale = index.entries != null;
+            if (!index.stale) {
+                index.entries = index.scan();
+                index.save();
+            }
+            index.watchThread.start();
+        } catch (IOException | RuntimeException e) {
+            index.watcher.close();
+            throw e;
+        }
+        return index;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns the number of files in the index.
+     * @author @francescoceliento@github.com
+     *
+     * @return int
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns up to maxResults indexed files whose name is accepted by the matcher.
+     * The order of the results is not defined.
+     * @author @francescoceliento@github.com
+     *
+     * @param matcher
+     * @param subFolder if false only the files directly in the root are considered
+     * @param maxResults
+     * @return List<Path>
+     */
+    public List<Path> find(Explorer.NameMatcher matcher, boolean subFolder, int maxResults) {
+        List<Path> result = new ArrayList<>();
+        if (maxResults <= 0) {
+            return result;
+        }
+        for (Map.Entry<String, Entry> indexed : entries.entrySet()) {
+            Entry entry = indexed.getValue();
+            if ((subFolder || entry.depth == 1) && matcher.matches(entry.name)) {
+                result.add(root.resolve(indexed.getKey()));
+                if (result.size() >= maxResults) {
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns true if at least one indexed file is accepted by the matcher.
+     * @author @francescoceliento@github.com
+     *
+     * @param matcher
+     * @param subFolder if false only the files directly in the root are considered
+     * @return boolean
+     */
+    public boolean contains(Explorer.NameMatcher matcher, boolean subFolder) {
+        return !find(matcher, subFolder, 1).isEmpty();
+    }
+
+    /**
+     * Returns the size in bytes of an indexed file, or -1 if the file is not in the index.
+     * @author @francescoceliento@github.com
+     *
+     * @param file
+     * @return long
+     */
+    public long getSize(Path file) {
+        Path absolute = file.toAbsolutePath().normalize();
+        if (!absolute.startsWith(root)) {
+            return -1;
+        }
+        Entry entry = entries.get(root.relativize(absolute).toString());
+        return entry == null ? -1 : entry.size;
+    }
+
+    /**
+     * Scans the whole tree again and replaces the content of the index.
+     * @author @francescoceliento@github.com
+     *
+     * @throws IOException
+     */
+    public void refresh() throws IOException {
+        synchronized (updateLock) {
+            entries = scan();
+            dirty = true;
+        }
+    }
+
+    /**
+     * Writes the index to its file. It is also done automatically a few seconds after the
+     * last change and on close.
+     * @author @francescoceliento@github.com
+     *
+     * @throws IOException
+     */
+    public void save() throws IOException {
+        Path temp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        synchronized (updateLock) {
+            dirty = false;
+            try {
+                List<Map.Entry<String, Entry>> snapshot = new ArrayList<>(entries.entrySet());
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 64 * 1024))) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    writeString(out, root.toString());
+                    out.writeInt(snapshot.size());
+                    for (Map.Entry<String, Entry> indexed : snapshot) {
+                        writeString(out, indexed.getKey());
+                        out.writeLong(indexed.getValue().size);
+                    }
+                }
+                // sostituzione atomica: chi legge l'indice non vede mai un file scritto a metà
+                try {
+                    Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } catch (IOException e) {
+                dirty = true;
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Stops watching the tree and saves the pending changes.
+     * @author @francescoceliento@github.com
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        watcher.close();
+        watchThread.interrupt();
+        try {
+            watchThread.join(TimeUnit.SECONDS.toMillis(SAVE_DELAY_SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (dirty) {
+            save();
+        }
+    }
+
+    private void watchLoop() {
+        // un indice letto da disco viene riallineato in background
+        if (stale) {
+            rescan();
+        }
+        while (!closed) {
+            WatchKey key;
+            try {
+                key = watcher.poll(SAVE_DELAY_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            if (key == null) {
+                saveIfDirty();
+                continue;
+            }
+            Path directory = watchedDirectories.get(key);
+            boolean overflow = false;
+            synchronized (updateLock) {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == OVERFLOW) {
+                        overflow = true;
+                    } else if (directory != null) {
+                        update(directory.resolve((Path) event.context()), event.kind());
+                    }
+                }
+            }
+            if (!key.reset()) {
+                watchedDirectories.remove(key);
+            }
+            if (overflow) {
+                // eventi persi: l'unica rappresentazione affidabile è una nuova scansione
+                rescan();
+            }
+        }
+    }
+
+    private void rescan() {
+        try {
+            refresh();
+        } catch (IOException e) {
+            System.err.println("Errore durante la scansione di " + root + ": " + e.getMessage());
+        }
+    }
+
+    private void saveIfDirty() {
+        if (dirty && !closed) {
+            try {
+                save();
+            } catch (IOException e) {
+                System.err.println("Errore durante il salvataggio dell'indice " + indexFile + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // Applica un evento del WatchService all'indice corrente
+    private void update(Path path, WatchEvent.Kind<?> kind) {
+        String key = root.relativize(path).toString();
+        ConcurrentHashMap<String, Entry> current = entries;
+        dirty = true;
+        if (kind == ENTRY_DELETE) {
+            if (current.remove(key) == null) {
+                // era una cartella: si rimuove tutto il suo contenuto
+                String prefix = key + separator;
+                current.keySet().removeIf(k -> k.startsWith(prefix));
+            }
+            return;
+        }
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            // già rimosso: arriverà l'evento di cancellazione
+            return;
+        }
+        if (attributes.isDirectory()) {
+            if (kind == ENTRY_CREATE && !Files.isSymbolicLink(path)) {
+                try {
+                    scanInto(path, current);
+                } catch (IOException e) {
+                    System.err.println("Errore durante la scansione di " + path + ": " + e.getMessage());
+                }
+            }
+        } else if (attributes.isRegularFile()) {
+            current.put(key, new Entry(path.getFileName().toString(), attributes.size(), path.getNameCount() - root.getNameCount()));
+        }
+    }
+
+    private ConcurrentHashMap<String, Entry> scan() throws IOException {
+        ConcurrentHashMap<String, Entry> scanned = new ConcurrentHashMap<>();
+        scanInto(root, scanned);
+        return scanned;
+    }
+
+    // Aggiunge i file sotto directory e registra le cartelle nel WatchService, in una sola visita
+    private void scanInto(Path directory, Map<String, Entry> target) throws IOException {
+        final int base = directory.getNameCount() - root.getNameCount();
+        register(directory);
+        ParallelFileWalker.walk(directory, Integer.MAX_VALUE, Integer.MAX_VALUE, new ParallelFileWalker.EntryMatcher() {
+            @Override
+            public boolean matches(Path path, BasicFileAttributes attributes, int depth) {
+                target.put(root.relativize(path).toString(), new Entry(path.getFileName().toString(), attributes.size(), base + depth));
+                return false;
+            }
+
+            @Override
+            public boolean enterDirectory(Path subdirectory, BasicFileAttributes attributes, int depth) {
+                register(subdirectory);
+                return true;
+            }
+        });
+    }
+
+    private void register(Path directory) {
+        if (closed) {
+            return;
+        }
+        try {
+            watchedDirectories.put(directory.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), directory);
+        } catch (IOException | ClosedWatchServiceException e) {
+            // limite dei watch raggiunto o cartella rimossa: resta aggiornata solo da refresh()
+        }
+    }
+
+    // Legge l'indice con una sola lettura; null se manca, è corrotto o è di un'altra radice.
+    // Non viene mappato: Java non può rilasciare una mappatura e su Windows il file mappato non potrebbe essere sostituito da save()
+    private ConcurrentHashMap<String, Entry> load() throws IOException {
+        if (!Files.isRegularFile(indexFile)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // legge tutto il file
+            }
+            buffer.flip();
+            if (buffer.remaining() < 8 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                    || !root.toString().equals(readString(buffer))) {
+                return null;
+            }
+            int count = buffer.getInt();
+            // Almeno 12 byte per voce (lunghezza del nome e dimensione): un conteggio maggiore indica un file corrotto
+            if (count < 0 || count > buffer.remaining() / 12) {
+                return null;
+            }
+            ConcurrentHashMap<String, Entry> loaded = new ConcurrentHashMap<>(Math.max(16, count * 4 / 3 + 1));
+            for (int i = 0; i < count; i++) {
+                String key = readString(buffer);
+                long size = buffer.getLong();
+                int depth = 1;
+                for (int at = key.indexOf(separator); at >= 0; at = key.indexOf(separator, at + separator.length())) {
+                    depth++;
+                }
+                loaded.put(key, new Entry(key.substring(key.lastIndexOf(separator) + 1), size, depth));
+            }
+            return loaded;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
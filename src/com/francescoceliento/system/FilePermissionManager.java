@@ -2,15 +2,27 @@ package com.francescoceliento.system;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.FileSystem;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.*;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
 
 /**
  * Classe per la gestione completa dei permessi, della proprietà e degli attributi speciali di un file utilizzando l'API Java NIO
@@ -31,6 +43,19 @@ public class FilePermissionManager {
         USER, GROUP, OTHER, ALL
     }
 
+    // Bit speciali del modo Unix
+    private static final int SETUID = 04000;
+    private static final int SETGID = 02000;
+    private static final int STICKY = 01000;
+    // Attributi letti con una sola chiamata dalla vista "unix" (modo completo, bit speciali compresi)
+    // uid e gid al posto di owner e group: i nomi costano una ricerca in passwd/group (anche NSS o LDAP) e sono risolti solo se richiesti
+    private static final String UNIX_ATTRIBUTES = "unix:mode,uid,gid,size,lastModifiedTime,lastAccessTime,creationTime,"
+            + "isRegularFile,isDirectory,isSymbolicLink,isOther,fileKey";
+    // Nomi già risolti per uid e gid
+    private static final Map<Integer, String> USER_NAMES = new ConcurrentHashMap<>();
+    private static final Map<Integer, String> GROUP_NAMES = new ConcurrentHashMap<>();
+    private static final Map<FileSystem, Set<String>> SUPPORTED_VIEWS = new ConcurrentHashMap<>();
+
     // Mappa per tradurre i nostri enum in PosixFilePermission standard
     private static final Map<Principal, Map<Permission, PosixFilePermission>> PERMISSION_MAP;
     
@@ -113,11 +138,20 @@ public class FilePermissionManager {
     
     // Verifica se il filesystem supporta le viste attributi POSIX
     private void checkPosixSupport() throws UnsupportedOperationException {
-        if (!filePath.getFileSystem().supportedFileAttributeViews().contains("posix")) {
-            throw new UnsupportedOperationException("Il filesystem non supporta i permessi POSIX per il file: " + filePath);
+        checkPosixSupport(filePath);
+    }
+
+    private static void checkPosixSupport(Path path) throws UnsupportedOperationException {
+        if (!supportsView(path.getFileSystem(), "posix")) {
+            throw new UnsupportedOperationException("Il filesystem non supporta i permessi POSIX per il file: " + path);
         }
     }
 
+    // Viste supportate da ogni filesystem, lette una sola volta
+    private static boolean supportsView(FileSystem fileSystem, String view) {
+        return SUPPORTED_VIEWS.computeIfAbsent(fileSystem, FileSystem::supportedFileAttributeViews).contains(view);
+    }
+
     // Ottiene l'attuale set di permessi POSIX del file
     private Set<PosixFilePermission> getCurrentPermissions() throws IOException {
         checkPosixSupport();
@@ -184,29 +218,9 @@ public class FilePermissionManager {
                    getPermission(Principal.OTHER, permission);
         }
 
-        Set<PosixFilePermission> currentPerms = getCurrentPermissions();
-        PosixFilePermission posixPerm = getPosixPerm(principal, permission);
-        return currentPerms.contains(posixPerm);
+        return getCurrentPermissions().contains(getPosixPerm(principal, permission));
     }
     
-    // Converte i permessi POSIX (9 bit) in formato ottale (3 cifre)
-    private int permissionsToOctal(Set<PosixFilePermission> perms) {
-        int octal = 0;
-        // User (400, 200, 100)
-        if (perms.contains(PosixFilePermission.OWNER_READ)) octal += 400;
-        if (perms.contains(PosixFilePermission.OWNER_WRITE)) octal += 200;
-        if (perms.contains(PosixFilePermission.OWNER_EXECUTE)) octal += 100;
-        // Group (40, 20, 10)
-        if (perms.contains(PosixFilePermission.GROUP_READ)) octal += 40;
-        if (perms.contains(PosixFilePermission.GROUP_WRITE)) octal += 20;
-        if (perms.contains(PosixFilePermission.GROUP_EXECUTE)) octal += 10;
-        // Others (4, 2, 1)
-        if (perms.contains(PosixFilePermission.OTHERS_READ)) octal += 4;
-        if (perms.contains(PosixFilePermission.OTHERS_WRITE)) octal += 2;
-        if (perms.contains(PosixFilePermission.OTHERS_EXECUTE)) octal += 1;
-        return octal;
-    }
-
     // Converte un valore ottale (3 cifre) in un Set di permessi POSIX (9 bit)
     private Set<PosixFilePermission> octalToPermissions(int octal) {
         Set<PosixFilePermission> perms = EnumSet.noneOf(PosixFilePermission.class);
@@ -229,23 +243,17 @@ public class FilePermissionManager {
         return perms;
     }
     
-    // Metodi di supporto per leggere/scrivere gli attributi speciali
-    private boolean getSpecialAttribute(String attributeName) throws IOException {
+    // Imposta o azzera un bit speciale: "posix:suid" e simili non esistono, i bit speciali sono nel modo della vista "unix"
+    private void setSpecialBit(int bit, boolean enabled) throws IOException {
         checkPosixSupport();
-        try {
-            return (Boolean) Files.getAttribute(filePath, attributeName);
-        } catch (Exception e) {
-            // Non tutti i filesystem supportano tutti gli attributi speciali.
-            return false;
+        if (!supportsView(filePath.getFileSystem(), "unix")) {
+            System.err.println("Avviso: Impossibile impostare il permesso speciale " + Integer.toOctalString(bit) + " (vista unix non supportata)");
+            return;
         }
-    }
-
-    private void setSpecialAttribute(String attributeName, boolean enabled) throws IOException {
-        checkPosixSupport();
-        try {
-            Files.setAttribute(filePath, attributeName, enabled);
-        } catch (Exception e) {
-            System.err.println("Avviso: Impossibile impostare l'attributo speciale " + attributeName + " (" + e.getMessage() + ")");
+        int mode = (Integer) Files.getAttribute(filePath, "unix:mode") & 07777;
+        int newMode = enabled ? mode | bit : mode & ~bit;
+        if (newMode != mode) {
+            Files.setAttribute(filePath, "unix:mode", newMode);
         }
     }
 
@@ -266,12 +274,18 @@ public class FilePermissionManager {
 
         // 1. Imposta i permessi standard (rwx per u/g/o)
         Set<PosixFilePermission> perms = octalToPermissions(standardBits);
+        checkPosixSupport();
+        if (supportsView(filePath.getFileSystem(), "unix")) {
+            // Un'unica scrittura del modo completo, bit speciali compresi
+            Files.setAttribute(filePath, "unix:mode", (specialBits & 7) << 9 | toMode(perms));
+            return;
+        }
         setCurrentPermissions(perms);
 
         // 2. Imposta i permessi speciali
-        setSpecialAttribute("posix:suid", (specialBits & 4) != 0); // 4000
-        setSpecialAttribute("posix:sgid", (specialBits & 2) != 0); // 2000
-        setSpecialAttribute("posix:sticky", (specialBits & 1) != 0); // 1000
+        setSpecialBit(SETUID, (specialBits & 4) != 0); // 4000
+        setSpecialBit(SETGID, (specialBits & 2) != 0); // 2000
+        setSpecialBit(STICKY, (specialBits & 1) != 0); // 1000
     }
 
     /**
@@ -282,16 +296,8 @@ public class FilePermissionManager {
      * @throws IOException
      */
     public int getChmod() throws IOException {
-        int octal = permissionsToOctal(getCurrentPermissions());
-        int specialBits = 0;
-        
-        // Calcola i bit speciali
-        if (isSetuidEnabled()) specialBits += 4000;
-        if (isSetgidEnabled()) specialBits += 2000;
-        if (isStickyBitEnabled()) specialBits += 1000;
-        
-        // Combina i bit speciali con l'ottale standard (es. 4000 + 755 = 4755)
-        return specialBits + octal;
+        // Una sola lettura per permessi e bit speciali
+        return readAttributes().getChmod();
     }
 
     /**
@@ -302,47 +308,13 @@ public class FilePermissionManager {
      * @throws IOException
      */
     public void setChmod(String symbolicChmod) throws IOException {
-        String[] operations = symbolicChmod.replaceAll("\\s+", "").toLowerCase().split(",");
-        
-        for (String operation : operations) {
-            if (operation.isEmpty()) continue;
-            
-            // Trova l'indice dell'operatore (+ o -)
-            int operatorIndex = operation.indexOf('+');
-            if (operatorIndex == -1) operatorIndex = operation.indexOf('-');
-            if (operatorIndex == -1) {
-                throw new IllegalArgumentException("Operatore simbolico non trovato (+ o -): " + operation);
-            }
-
-            String principalString = operation.substring(0, operatorIndex);
-            char operatorChar = operation.charAt(operatorIndex);
-            String permissionString = operation.substring(operatorIndex + 1);
-            
-            boolean enable = (operatorChar == '+');
-            
-            for (char pChar : principalString.toCharArray()) {
-                Principal principal;
-                switch (pChar) {
-                    case 'u': principal = Principal.USER; break;
-                    case 'g': principal = Principal.GROUP; break;
-                    case 'o': principal = Principal.OTHER; break;
-                    case 'a': principal = Principal.ALL; break;
-                    default: throw new IllegalArgumentException("Principal simbolico non valido: " + pChar);
-                }
-
-                for (char permChar : permissionString.toCharArray()) {
-                    Permission permission;
-                    switch (permChar) {
-                        case 'r': permission = Permission.READ; break;
-                        case 'w': permission = Permission.WRITE; break;
-                        case 'x': permission = Permission.EXECUTABLE; break;
-                        default: throw new IllegalArgumentException("Permesso simbolico non valido: " + permChar);
-                    }
-                    
-                    // Utilizza il metodo setPermission a flag per applicare la modifica
-                    setPermission(principal, permission, enable);
-                }
-            }
+        // Espressione compilata in maschere: una sola lettura e una sola scrittura del modo, bit speciali compresi
+        ChmodMask mask = ChmodMask.compile(symbolicChmod);
+        checkPosixSupport();
+        int mode = readAttributes().getMode();
+        int newMode = mask.apply(mode);
+        if (newMode != mode) {
+            writeMode(filePath, newMode);
         }
     }
 
@@ -433,7 +405,7 @@ public class FilePermissionManager {
      * @return
      * @throws IOException
      */
-    public boolean isSetuidEnabled() throws IOException { return getSpecialAttribute("posix:suid"); }
+    public boolean isSetuidEnabled() throws IOException { return readAttributes().isSetuidEnabled(); }
     
     /**
      * Imposta il permesso speciale Setuid
@@ -442,7 +414,7 @@ public class FilePermissionManager {
      * @param enabled
      * @throws IOException
      */
-    public void setSetuidEnabled(boolean enabled) throws IOException { setSpecialAttribute("posix:suid", enabled); }
+    public void setSetuidEnabled(boolean enabled) throws IOException { setSpecialBit(SETUID, enabled); }
 
     /**
      * Verifica l'abilitazione del permesso speciale Setgid
@@ -451,7 +423,7 @@ public class FilePermissionManager {
      * @return boolean
      * @throws IOException
      */
-    public boolean isSetgidEnabled() throws IOException { return getSpecialAttribute("posix:sgid"); }
+    public boolean isSetgidEnabled() throws IOException { return readAttributes().isSetgidEnabled(); }
     
     /**
      * Imposta l'abilitazione del permesso speciale Setgid
@@ -460,7 +432,7 @@ public class FilePermissionManager {
      * @param enabled
      * @throws IOException
      */
-    public void setSetgidEnabled(boolean enabled) throws IOException { setSpecialAttribute("posix:sgid", enabled); }
+    public void setSetgidEnabled(boolean enabled) throws IOException { setSpecialBit(SETGID, enabled); }
 
     /**
      * Verifica l'abilitazione del permesso speciale Sticky Bit
@@ -469,7 +441,7 @@ public class FilePermissionManager {
      * @return boolean
      * @throws IOException
      */
-    public boolean isStickyBitEnabled() throws IOException { return getSpecialAttribute("posix:sticky"); }
+    public boolean isStickyBitEnabled() throws IOException { return readAttributes().isStickyBitEnabled(); }
     /**
      * Imposta l'abilitazione del permesso speciale Sticky Bit
      * @author @francescoceliento@github.com
@@ -477,6 +449,585 @@ public class FilePermissionManager {
      * @param enabled
      * @throws IOException
      */
-    public void setStickyBitEnabled(boolean enabled) throws IOException { setSpecialAttribute("posix:sticky", enabled); }
+    public void setStickyBitEnabled(boolean enabled) throws IOException { setSpecialBit(STICKY, enabled); }
     
+    /**
+     * Legge con una sola chiamata al filesystem permessi, bit speciali, proprietario, gruppo, dimensione e data di modifica
+     * del file gestito
+     * @author @francescoceliento@github.com
+     *
+     * @return Attributes
+     * @throws IOException
+     */
+    public Attributes readAttributes() throws IOException {
+        return readAttributes(filePath);
+    }
+
+    /**
+     * Legge con una sola chiamata al filesystem gli attributi di un file. Come Files.readAttributes segue i link simbolici,
+     * salvo che venga indicato LinkOption.NOFOLLOW_LINKS. Sui filesystem senza vista "unix" i permessi speciali risultano disabilitati.
+     * @author @francescoceliento@github.com
+     *
+     * @param path
+     * @param options
+     * @return Attributes
+     * @throws IOException
+     */
+    public static Attributes readAttributes(Path path, LinkOption... options) throws IOException {
+        if (supportsView(path.getFileSystem(), "unix")) {
+            return new Attributes(path, Files.readAttributes(path, UNIX_ATTRIBUTES, options), options);
+        }
+        checkPosixSupport(path);
+        return new Attributes(path, Files.readAttributes(path, PosixFileAttributes.class, options));
+    }
+
+    // Nome del proprietario (o del gruppo) con uid (o gid) id, risolto una sola volta per id
+    private static String principalName(Path path, LinkOption[] options, boolean isGroup, int id) {
+        Map<Integer, String> names = isGroup ? GROUP_NAMES : USER_NAMES;
+        String name = names.get(id);
+        if (name != null) {
+            return name;
+        }
+        try {
+            Map<String, Object> values = Files.readAttributes(path, isGroup ? "unix:gid,group" : "unix:uid,owner", options);
+            // il file potrebbe essere cambiato dopo la lettura degli attributi
+            if ((Integer) values.get(isGroup ? "gid" : "uid") == id) {
+                name = ((UserPrincipal) values.get(isGroup ? "group" : "owner")).getName();
+                names.put(id, name);
+                return name;
+            }
+        } catch (IOException | SecurityException e) {
+            // file non più leggibile: resta l'id numerico
+        }
+        return Integer.toString(id);
+    }
+
+    /**
+     * Legge in parallelo gli attributi di molti file. I file non leggibili (rimossi, senza permessi) non compaiono nel risultato.
+     * @author @francescoceliento@github.com
+     *
+     * @param paths
+     * @return Map<Path, Attributes> nell'ordine di paths
+     * @throws IOException se la lettura viene interrotta
+     */
+    public static Map<Path, Attributes> readAttributes(Collection<Path> paths) throws IOException {
+        List<Path> list = new ArrayList<>(paths);
+        Attributes[] snapshots = new Attributes[list.size()];
+        try {
+            ParallelFileWalker.POOL.submit(() -> IntStream.range(0, snapshots.length).parallel().forEach(i -> {
+                try {
+                    snapshots[i] = readAttributes(list.get(i));
+                } catch (IOException e) {
+                    // file non leggibile: escluso dal risultato
+                }
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Lettura degli attributi interrotta", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        Map<Path, Attributes> result = new LinkedHashMap<>(snapshots.length * 4 / 3 + 1);
+        for (int i = 0; i < snapshots.length; i++) {
+            if (snapshots[i] != null) {
+                result.put(list.get(i), snapshots[i]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Applica permessi, proprietario e gruppo a root e a tutto il suo contenuto, visitando le cartelle in parallelo.
+     * Per ogni file gli attributi POSIX vengono letti una sola volta durante la visita e ogni attributo viene
+     * scritto solo se cambia. I link simbolici non vengono seguiti né modificati, nemmeno se sostituiscono un file
+     * dopo la sua lettura: in quel caso il file è riportato tra i falliti.
+     * @author @francescoceliento@github.com
+     *
+     * @param root
+     * @param mask      i permessi da applicare, null per lasciarli invariati
+     * @param ownerName il nuovo proprietario, null per lasciarlo invariato
+     * @param groupName il nuovo gruppo, null per lasciarlo invariato
+     * @return ApplyResult
+     * @throws IOException se root non è leggibile o proprietario/gruppo non esistono
+     */
+    public static ApplyResult apply(Path root, ChmodMask mask, String ownerName, String groupName) throws IOException {
+        checkPosixSupport(root);
+        // Principal risolti una sola volta per tutto l'albero
+        UserPrincipalLookupService lookup = root.getFileSystem().getUserPrincipalLookupService();
+        UserPrincipal owner = ownerName != null ? lookup.lookupPrincipalByName(ownerName) : null;
+        GroupPrincipal group = groupName != null ? lookup.lookupPrincipalByGroupName(groupName) : null;
+
+        ApplyResult result = new ApplyResult();
+        Attributes rootAttributes = readAttributes(root, LinkOption.NOFOLLOW_LINKS);
+        result.applyTo(root, rootAttributes, mask, owner, group);
+        if (rootAttributes.isDirectory()) {
+            // Attributi letti come Attributes: servono il modo completo e i bit speciali
+            ParallelFileWalker.walk(root, Integer.MAX_VALUE, Integer.MAX_VALUE, new ParallelFileWalker.EntryMatcher() {
+                @Override
+                public boolean matches(Path path, BasicFileAttributes attributes, int depth) {
+                    result.applyTo(path, (Attributes) attributes, mask, owner, group);
+                    return false;
+                }
+
+                @Override
+                public boolean enterDirectory(Path directory, BasicFileAttributes attributes, int depth) {
+                    result.applyTo(directory, (Attributes) attributes, mask, owner, group);
+                    return true;
+                }
+            }, FilePermissionManager::readAttributes, false);
+        }
+        return result;
+    }
+
+    // Scrive il modo con una sola chiamata: completo tramite la vista "unix", altrimenti solo i 9 bit POSIX
+    static void writeMode(Path path, int mode, LinkOption... options) throws IOException {
+        if (supportsView(path.getFileSystem(), "unix")) {
+            Files.setAttribute(path, "unix:mode", mode & 07777, options);
+        } else {
+            Files.getFileAttributeView(path, PosixFileAttributeView.class, options).setPermissions(toPermissions(mode));
+        }
+    }
+
+    // Scrive il modo di un file letto in precedenza senza seguire un link che l'abbia sostituito nel frattempo.
+    // Con NOFOLLOW_LINKS il JDK apre il file in lettura per fchmod e fallisce sui file non leggibili: solo allora
+    // si segue il path, se un lstat subito prima conferma che è ancora lo stesso file (fileKey) e non un link.
+    static void writeModeNoFollow(Path path, int mode, Object fileKey) throws IOException {
+        try {
+            writeMode(path, mode, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            BasicFileAttributes current = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (fileKey == null || current.isSymbolicLink() || !fileKey.equals(current.fileKey())) {
+                throw e;
+            }
+            writeMode(path, mode);
+        }
+    }
+
+    // Converte un set di permessi POSIX nei 9 bit del modo (0777)
+    private static int toMode(Set<PosixFilePermission> perms) {
+        int mode = 0;
+        for (PosixFilePermission perm : perms) {
+            mode |= modeBit(perm);
+        }
+        return mode;
+    }
+
+    // Converte i 9 bit del modo in un set di permessi POSIX
+    private static Set<PosixFilePermission> toPermissions(int mode) {
+        Set<PosixFilePermission> perms = EnumSet.noneOf(PosixFilePermission.class);
+        for (PosixFilePermission perm : PosixFilePermission.values()) {
+            if ((mode & modeBit(perm)) != 0) {
+                perms.add(perm);
+            }
+        }
+        return perms;
+    }
+
+    // OWNER_READ..OTHERS_EXECUTE sono dichiarati nell'ordine dei bit 0400..0001
+    private static int modeBit(PosixFilePermission perm) {
+        return 1 << (8 - perm.ordinal());
+    }
+
+    /**
+     * Espressione simbolica compilata (es. "u+rwx,go-w") in una maschera di bit da impostare e una da azzerare.
+     * Immutabile e riutilizzabile su qualsiasi numero di file.
+     * @author @francescoceliento@github.com
+     */
+    public static final class ChmodMask {
+        private final int setBits;
+        private final int clearBits;
+
+        private ChmodMask(int setBits, int clearBits) {
+            this.setBits = setBits;
+            this.clearBits = clearBits;
+        }
+
+        /**
+         * Compila la notazione simbolica (es. "g+w", "u-x,a+r"). Supporta solo gli operatori '+' (aggiungi) e '-' (rimuovi);
+         * le operazioni vengono applicate in ordine, quindi l'ultima prevale.
+         * @author @francescoceliento@github.com
+         *
+         * @param symbolicChmod
+         * @return ChmodMask
+         */
+        public static ChmodMask compile(String symbolicChmod) {
+            int setBits = 0;
+            int clearBits = 0;
+            String[] operations = symbolicChmod.replaceAll("\\s+", "").toLowerCase().split(",");
+
+            for (String operation : operations) {
+                if (operation.isEmpty()) continue;
+
+                // Trova l'indice dell'operatore (+ o -)
+                int operatorIndex = operation.indexOf('+');
+                if (operatorIndex == -1) operatorIndex = operation.indexOf('-');
+                if (operatorIndex == -1) {
+                    throw new IllegalArgumentException("Operatore simbolico non trovato (+ o -): " + operation);
+                }
+
+                // Bit rwx nella posizione "other", spostati poi per ogni principal
+                int rwx = 0;
+                for (char permChar : operation.substring(operatorIndex + 1).toCharArray()) {
+                    switch (permChar) {
+                        case 'r': rwx |= 4; break;
+                        case 'w': rwx |= 2; break;
+                        case 'x': rwx |= 1; break;
+                        default: throw new IllegalArgumentException("Permesso simbolico non valido: " + permChar);
+                    }
+                }
+
+                int bits = 0;
+                for (char pChar : operation.substring(0, operatorIndex).toCharArray()) {
+                    switch (pChar) {
+                        case 'u': bits |= rwx << 6; break;
+                        case 'g': bits |= rwx << 3; break;
+                        case 'o': bits |= rwx; break;
+                        case 'a': bits |= rwx << 6 | rwx << 3 | rwx; break;
+                        default: throw new IllegalArgumentException("Principal simbolico non valido: " + pChar);
+                    }
+                }
+
+                if (operation.charAt(operatorIndex) == '+') {
+                    setBits |= bits;
+                    clearBits &= ~bits;
+                } else {
+                    clearBits |= bits;
+                    setBits &= ~bits;
+                }
+            }
+            return new ChmodMask(setBits, clearBits);
+        }
+
+        /**
+         * Maschera che imposta esattamente i permessi della notazione numerica a 3 cifre (es. 755).
+         * @author @francescoceliento@github.com
+         *
+         * @param chmod
+         * @return ChmodMask
+         */
+        public static ChmodMask octal(int chmod) {
+            if (chmod < 0 || chmod > 777 || chmod % 10 > 7 || chmod / 10 % 10 > 7) {
+                throw new IllegalArgumentException("Il valore Chmod deve essere tra 0 e 777.");
+            }
+            int mode = (chmod / 100) << 6 | (chmod / 10 % 10) << 3 | chmod % 10;
+            return new ChmodMask(mode, 0777 & ~mode);
+        }
+
+        /**
+         * Applica la maschera al modo; i bit speciali (setuid, setgid, sticky) restano invariati.
+         * @author @francescoceliento@github.com
+         *
+         * @param mode
+         * @return int
+         */
+        public int apply(int mode) {
+            return (mode & ~clearBits) | setBits;
+        }
+
+        /**
+         * Applica la maschera a un set di permessi, restituendo un nuovo set.
+         * @author @francescoceliento@github.com
+         *
+         * @param perms
+         * @return Set<PosixFilePermission>
+         */
+        public Set<PosixFilePermission> apply(Set<PosixFilePermission> perms) {
+            return toPermissions(apply(toMode(perms)));
+        }
+    }
+
+    /**
+     * Istantanea immutabile degli attributi di un file, letta con una sola chiamata al filesystem.
+     * Implementa BasicFileAttributes, quindi può sostituire gli attributi letti durante una visita dell'albero.
+     * @author @francescoceliento@github.com
+     */
+    public static final class Attributes implements BasicFileAttributes {
+        private final Path path;
+        private final LinkOption[] options;
+        private final int mode;
+        private final int uid;
+        private final int gid;
+        // Risolti alla prima richiesta per gli attributi della vista "unix"
+        private String owner;
+        private String group;
+        private final long size;
+        private final FileTime lastModifiedTime;
+        private final FileTime lastAccessTime;
+        private final FileTime creationTime;
+        private final boolean regularFile;
+        private final boolean directory;
+        private final boolean symbolicLink;
+        private final boolean other;
+        private final Object fileKey;
+
+        // Dalla vista "unix": modo completo, bit speciali compresi
+        private Attributes(Path path, Map<String, Object> values, LinkOption[] options) {
+            this.path = path;
+            this.options = options;
+            this.mode = (Integer) values.get("mode") & 07777;
+            this.uid = (Integer) values.get("uid");
+            this.gid = (Integer) values.get("gid");
+            this.size = (Long) values.get("size");
+            this.lastModifiedTime = (FileTime) values.get("lastModifiedTime");
+            this.lastAccessTime = (FileTime) values.get("lastAccessTime");
+            this.creationTime = (FileTime) values.get("creationTime");
+            this.regularFile = (Boolean) values.get("isRegularFile");
+            this.directory = (Boolean) values.get("isDirectory");
+            this.symbolicLink = (Boolean) values.get("isSymbolicLink");
+            this.other = (Boolean) values.get("isOther");
+            this.fileKey = values.get("fileKey");
+        }
+
+        // Da attributi POSIX: i bit speciali non sono disponibili
+        private Attributes(Path path, PosixFileAttributes attributes) {
+            this.path = path;
+            this.options = null;
+            this.mode = toMode(attributes.permissions());
+            this.uid = -1;
+            this.gid = -1;
+            this.owner = attributes.owner().getName();
+            this.group = attributes.group().getName();
+            this.size = attributes.size();
+            this.lastModifiedTime = attributes.lastModifiedTime();
+            this.lastAccessTime = attributes.lastAccessTime();
+            this.creationTime = attributes.creationTime();
+            this.regularFile = attributes.isRegularFile();
+            this.directory = attributes.isDirectory();
+            this.symbolicLink = attributes.isSymbolicLink();
+            this.other = attributes.isOther();
+            this.fileKey = attributes.fileKey();
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        /**
+         * Restituisce il modo in bit (es. 04755), permessi speciali compresi
+         * @author @francescoceliento@github.com
+         *
+         * @return int
+         */
+        public int getMode() {
+            return mode;
+        }
+
+        /**
+         * Restituisce i permessi in notazione numerica a 4 cifre, come FilePermissionManager.getChmod (es. 4755)
+         * @author @francescoceliento@github.com
+         *
+         * @return int
+         */
+        public int getChmod() {
+            return (mode >> 9 & 7) * 1000 + (mode >> 6 & 7) * 100 + (mode >> 3 & 7) * 10 + (mode & 7);
+        }
+
+        public Set<PosixFilePermission> getPermissions() {
+            return Collections.unmodifiableSet(toPermissions(mode));
+        }
+
+        /**
+         * Restituisce i permessi in notazione estesa (rwxr-xr-x)
+         * @author @francescoceliento@github.com
+         *
+         * @return String
+         */
+        public String getPermission() {
+            return PosixFilePermissions.toString(toPermissions(mode));
+        }
+
+        /**
+         * Verifica se un permesso è abilitato per un Principal; ALL è vero solo se è vero per USER, GROUP e OTHER
+         * @author @francescoceliento@github.com
+         *
+         * @param principal
+         * @param permission
+         * @return boolean
+         */
+        public boolean getPermission(Principal principal, Permission permission) {
+            if (principal == Principal.ALL) {
+                return getPermission(Principal.USER, permission) &&
+                       getPermission(Principal.GROUP, permission) &&
+                       getPermission(Principal.OTHER, permission);
+            }
+            return (mode & modeBit(PERMISSION_MAP.get(principal).get(permission))) != 0;
+        }
+
+        public String getOwner() {
+            String name = owner;
+            if (name == null) {
+                owner = name = principalName(path, options, false, uid);
+            }
+            return name;
+        }
+
+        public String getGroup() {
+            String name = group;
+            if (name == null) {
+                group = name = principalName(path, options, true, gid);
+            }
+            return name;
+        }
+
+        /**
+         * Restituisce l'uid del proprietario, -1 se il filesystem non ha la vista "unix"
+         * @author @francescoceliento@github.com
+         *
+         * @return int
+         */
+        public int getUid() {
+            return uid;
+        }
+
+        /**
+         * Restituisce il gid del gruppo, -1 se il filesystem non ha la vista "unix"
+         * @author @francescoceliento@github.com
+         *
+         * @return int
+         */
+        public int getGid() {
+            return gid;
+        }
+
+        public boolean isSetuidEnabled() {
+            return (mode & SETUID) != 0;
+        }
+
+        public boolean isSetgidEnabled() {
+            return (mode & SETGID) != 0;
+        }
+
+        public boolean isStickyBitEnabled() {
+            return (mode & STICKY) != 0;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Restituisce la data di ultima modifica in millisecondi epoch
+         * @author @francescoceliento@github.com
+         *
+         * @return long
+         */
+        public long getLastModified() {
+            return lastModifiedTime.toMillis();
+        }
+
+        @Override
+        public FileTime lastModifiedTime() {
+            return lastModifiedTime;
+        }
+
+        @Override
+        public FileTime lastAccessTime() {
+            return lastAccessTime;
+        }
+
+        @Override
+        public FileTime creationTime() {
+            return creationTime;
+        }
+
+        @Override
+        public boolean isRegularFile() {
+            return regularFile;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return directory;
+        }
+
+        @Override
+        public boolean isSymbolicLink() {
+            return symbolicLink;
+        }
+
+        @Override
+        public boolean isOther() {
+            return other;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public Object fileKey() {
+            return fileKey;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%04d %s:%s %s", getChmod(), getOwner(), getGroup(), path);
+        }
+    }
+
+    /**
+     * Esito di apply: file visitati, file modificati e file su cui la modifica è fallita.
+     * @author @francescoceliento@github.com
+     */
+    public static final class ApplyResult {
+        private final AtomicLong visited = new AtomicLong();
+        private final AtomicLong modified = new AtomicLong();
+        private final Queue<Path> failed = new ConcurrentLinkedQueue<>();
+
+        ApplyResult() {
+        }
+
+        public long getVisited() {
+            return visited.get();
+        }
+
+        public long getModified() {
+            return modified.get();
+        }
+
+        public List<Path> getFailed() {
+            return new ArrayList<>(failed);
+        }
+
+        // Ogni attributo viene scritto solo se diverso da quello letto; il modo comprende i bit speciali
+        void applyTo(Path path, Attributes attributes, ChmodMask mask, UserPrincipal owner, GroupPrincipal group) {
+            if (attributes.isSymbolicLink()) {
+                return;
+            }
+            visited.incrementAndGet();
+            boolean changed = false;
+            try {
+                boolean chown = owner != null && !owner.getName().equals(attributes.getOwner());
+                boolean chgrp = group != null && !group.getName().equals(attributes.getGroup());
+                if (chown || chgrp) {
+                    // lchown: se nel frattempo il file è diventato un link, si modifica il link e non la destinazione
+                    PosixFileAttributeView view = Files.getFileAttributeView(path, PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS);
+                    if (chown) {
+                        view.setOwner(owner);
+                    }
+                    if (chgrp) {
+                        view.setGroup(group);
+                    }
+                    changed = true;
+                }
+                int mode = attributes.getMode();
+                int newMode = mask != null ? mask.apply(mode) : mode;
+                // dopo chown il kernel azzera setuid/setgid: il modo va riscritto anche se invariato
+                if (newMode != mode || chown || chgrp) {
+                    writeModeNoFollow(path, newMode, attributes.fileKey());
+                    changed |= newMode != mode;
+                }
+            } catch (IOException | SecurityException e) {
+                failed.add(path);
+            }
+            if (changed) {
+                modified.incrementAndGet();
+            }
+        }
+    }
+
 }
\ No newline at end of file
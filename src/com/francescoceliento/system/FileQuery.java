@@ -0,0 +1,245 @@
+package com.francescoceliento.system;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import com.francescoceliento.system.Explorer.Include;
+import com.francescoceliento.system.Explorer.TypeSearch;
+
+/**
+ * Criteria for Explorer searches: name, extensions, glob and regular expressions on the file name,
+ * ranges of size and modification time, depth limits. All the criteria must be satisfied, the
+ * extensions are alternatives. compile() produces an immutable Matcher that can be reused across
+ * searches and threads; it is evaluated on the attributes already read by the walk, without further
+ * file system calls.
+ * @author @francescoceliento@github.com
+ */
+public final class FileQuery {
+
+    private Explorer.NameMatcher name;
+    private final List<String> extensions = new ArrayList<>();
+    private final List<PathMatcher> globs = new ArrayList<>();
+    private final List<Pattern> regexes = new ArrayList<>();
+    private long minSize = 0;
+    private long maxSize = Long.MAX_VALUE;
+    private long minModified = Long.MIN_VALUE;
+    private long maxModified = Long.MAX_VALUE;
+    private int minDepth = 1;
+    private int maxDepth = Integer.MAX_VALUE;
+
+    /**
+     * Filters the file name with the same semantics of Explorer.fileExist.
+     * @author @francescoceliento@github.com
+     *
+     * @param search
+     * @param typeSearch
+     * @param include
+     * @return this query
+     */
+    public FileQuery name(String search, TypeSearch typeSearch, Include include) {
+        this.name = Explorer.NameMatcher.compile(search, null, typeSearch, include);
+        return this;
+    }
+
+    /**
+     * Accepts only the files with one of the given extensions, compared ignoring case.
+     * Can be called more than once to add extensions.
+     * @author @francescoceliento@github.com
+     *
+     * @param extensions without or with the leading dot (e.g. "txt", ".pdf")
+     * @return this query
+     */
+    public FileQuery extensions(String... extensions) {
+        for (String ext : extensions) {
+            if (ext == null || ext.trim().isEmpty()) {
+                throw new IllegalArgumentException("The extension cannot be empty.");
+            }
+            String trimmedExt = ext.trim().toLowerCase();
+            this.extensions.add(trimmedExt.startsWith(".") ? trimmedExt : "." + trimmedExt);
+        }
+        return this;
+    }
+
+    /**
+     * Accepts only the files whose name matches the glob (e.g. "report-*.{csv,txt}"),
+     * with the syntax of FileSystem.getPathMatcher.
+     * @author @francescoceliento@github.com
+     *
+     * @param pattern
+     * @return this query
+     */
+    public FileQuery glob(String pattern) {
+        globs.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern));
+        return this;
+    }
+
+    /**
+     * Accepts only the files whose whole name matches the regular expression.
+     * @author @francescoceliento@github.com
+     *
+     * @param pattern
+     * @return this query
+     */
+    public FileQuery regex(String pattern) {
+        regexes.add(Pattern.compile(pattern));
+        return this;
+    }
+
+    /**
+     * Accepts only the files whose size in bytes is between min and max, included.
+     * @author @francescoceliento@github.com
+     *
+     * @param min
+     * @param max
+     * @return this query
+     */
+    public FileQuery size(long min, long max) {
+        if (min < 0 || min > max) {
+            throw new IllegalArgumentException("Invalid size range: " + min + " - " + max);
+        }
+        this.minSize = min;
+        this.maxSize = max;
+        return this;
+    }
+
+    /**
+     * Accepts only the files modified between from and to, epoch milliseconds included.
+     * @author @francescoceliento@github.com
+     *
+     * @param from
+     * @param to
+     * @return this query
+     */
+    public FileQuery modified(long from, long to) {
+        if (from > to) {
+            throw new IllegalArgumentException("Invalid time range: " + from + " - " + to);
+        }
+        this.minModified = from;
+        this.maxModified = to;
+        return this;
+    }
+
+    /**
+     * Accepts only the files between the given depths, 1 for the files directly in the
+     * search folder. Folders deeper than max are not walked.
+     * @author @francescoceliento@github.com
+     *
+     * @param min
+     * @param max
+     * @return this query
+     */
+    public FileQuery depth(int min, int max) {
+        if (min < 1 || min > max) {
+            throw new IllegalArgumentException("Invalid depth range: " + min + " - " + max);
+        }
+        this.minDepth = min;
+        this.maxDepth = max;
+        return this;
+    }
+
+    /**
+     * Compiles the current criteria; later changes to this query do not affect the matcher.
+     * @author @francescoceliento@github.com
+     *
+     * @return Matcher
+     */
+    public Matcher compile() {
+        return new Matcher(this);
+    }
+
+    /**
+     * Compiled form of a FileQuery. Thread-safe.
+     * @author @francescoceliento@github.com
+     */
+    public static final class Matcher implements ParallelFileWalker.EntryMatcher {
+        private final Explorer.NameMatcher name;
+        private final String[] extensions;
+        private final PathMatcher[] globs;
+        private final Pattern[] regexes;
+        private final long minSize;
+        private final long maxSize;
+        private final long minModified;
+        private final long maxModified;
+        private final boolean checkModified;
+        private final int minDepth;
+        private final int maxDepth;
+
+        private Matcher(FileQuery query) {
+            this.name = query.name;
+            this.extensions = query.extensions.toArray(new String[0]);
+            this.globs = query.globs.toArray(new PathMatcher[0]);
+            this.regexes = query.regexes.toArray(new Pattern[0]);
+            this.minSize = query.minSize;
+            this.maxSize = query.maxSize;
+            this.minModified = query.minModified;
+            this.maxModified = query.maxModified;
+            this.checkModified = minModified != Long.MIN_VALUE || maxModified != Long.MAX_VALUE;
+            this.minDepth = query.minDepth;
+            this.maxDepth = query.maxDepth;
+        }
+
+        public int getMaxDepth() {
+            return maxDepth;
+        }
+
+        /**
+         * Evaluates the criteria on a regular file; the cheap attribute checks come first.
+         * @author @francescoceliento@github.com
+         *
+         * @param path
+         * @param attributes attributes of the file
+         * @param depth 1 for the files directly in the search folder
+         * @return boolean
+         */
+        @Override
+        public boolean matches(Path path, BasicFileAttributes attributes, int depth) {
+            if (depth < minDepth || depth > maxDepth) {
+                return false;
+            }
+            long size = attributes.size();
+            if (size < minSize || size > maxSize) {
+                return false;
+            }
+            if (checkModified) {
+                long modified = attributes.lastModifiedTime().toMillis();
+                if (modified < minModified || modified > maxModified) {
+                    return false;
+                }
+            }
+            Path fileName = path.getFileName();
+            String text = fileName.toString();
+            if (extensions.length > 0 && !hasExtension(text)) {
+                return false;
+            }
+            if (name != null && !name.matches(text)) {
+                return false;
+            }
+            for (PathMatcher glob : globs) {
+                if (!glob.matches(fileName)) {
+                    return false;
+                }
+            }
+            for (Pattern regex : regexes) {
+                if (!regex.matcher(text).matches()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean hasExtension(String fileName) {
+            for (String ext : extensions) {
+                if (fileName.regionMatches(true, fileName.length() - ext.length(), ext, 0, ext.length())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+}
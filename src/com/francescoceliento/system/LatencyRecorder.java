@@ -0,0 +1,278 @@
+package com.francescoceliento.system;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in nanoseconds with log-linear buckets, as in HdrHistogram: every power of two
+ * is split into 128 linear sub-buckets, so any value is stored with a relative error below 1% and the
+ * memory is fixed (about 60 KB) for the whole range of long. Recording is lock-free and does not
+ * allocate, so it can be done from many threads on hot paths. Percentiles are read from snapshots,
+ * which can be merged to combine several recorders.
+ * @author @francescoceliento@github.com
+ */
+public final class LatencyRecorder {
+
+    // 2^SUB_BITS sotto-bucket per ogni potenza di due
+    private static final int SUB_BITS = 8;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int SUB_HALF = SUB_COUNT >> 1;
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Records a latency in nanoseconds; negative values are recorded as zero.
+     * @author @francescoceliento@github.com
+     *
+     * @param nanos
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(indexOf(value));
+        sum.add(value);
+        min.accumulate(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Records the time elapsed since a value of System.nanoTime.
+     * @author @francescoceliento@github.com
+     *
+     * @param startNanos
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Records a latency in the given unit.
+     * @author @francescoceliento@github.com
+     *
+     * @param duration
+     * @param unit
+     */
+    public void record(long duration, TimeUnit unit) {
+        record(unit.toNanos(duration));
+    }
+
+    /**
+     * Runs the task and records its duration, also when it throws.
+     * @author @francescoceliento@github.com
+     *
+     * @param task
+     */
+    public void time(Runnable task) {
+        long start = System.nanoTime();
+        try {
+            task.run();
+        } finally {
+            recordSince(start);
+        }
+    }
+
+    /**
+     * Returns a copy of the current state. Values recorded while the copy is taken may or may not
+     * be included.
+     * @author @francescoceliento@github.com
+     *
+     * @return Snapshot
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+        }
+        return new Snapshot(copy, sum.sum(), min.get(), max.get());
+    }
+
+    /**
+     * Returns a copy of the current state and clears the recorder, to report intervals (e.g. every minute).
+     * The count of each value, and so the percentiles, falls in exactly one snapshot. The sum, min and max
+     * are not swapped together with the counts: a value recorded during the reset may add to the mean of
+     * the adjacent interval, and min and max are kept within the buckets of the counts of the snapshot.
+     * @author @francescoceliento@github.com
+     *
+     * @return Snapshot
+     */
+    public Snapshot snapshotAndReset() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.getAndSet(i, 0);
+        }
+        // Sottrae la somma letta invece di sumThenReset, che su Java 8 può perdere le add concorrenti
+        long total = sum.sum();
+        sum.add(-total);
+        return new Snapshot(copy, total, min.getThenReset(), max.getThenReset());
+    }
+
+    // Indice del bucket: lineare sotto SUB_COUNT, poi SUB_HALF sotto-bucket per ogni potenza di due
+    static int indexOf(long value) {
+        int bucket = 63 - Long.numberOfLeadingZeros(value | (SUB_COUNT - 1)) - (SUB_BITS - 1);
+        return (bucket << (SUB_BITS - 1)) + (int) (value >>> bucket);
+    }
+
+    // Valore più basso rappresentato dal bucket: i bucket sono contigui
+    static long lowestValueOf(int index) {
+        return index == 0 ? 0 : highestValueOf(index - 1) + 1;
+    }
+
+    // Valore più alto rappresentato dal bucket
+    static long highestValueOf(int index) {
+        int bucket = Math.max(0, (index >> (SUB_BITS - 1)) - 1);
+        long subBucket = index - ((long) bucket << (SUB_BITS - 1));
+        long lowest = subBucket << bucket;
+        return lowest + (1L << bucket) - 1;
+    }
+
+    /**
+     * Immutable state of a recorder. Percentiles are accurate within the bucket width, below 1%.
+     * @author @francescoceliento@github.com
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long min;
+        private final long max;
+
+        Snapshot(long[] counts, long sum, long min, long max) {
+            this.counts = counts;
+            long total = 0;
+            int first = -1;
+            int last = -1;
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 0) {
+                    total += counts[i];
+                    first = first < 0 ? i : first;
+                    last = i;
+                }
+            }
+            this.count = total;
+            this.sum = sum;
+            // min e max letti a parte dai conteggi: riportati nel primo e nell'ultimo bucket non vuoto
+            this.min = total == 0 ? 0 : Math.min(Math.max(min, lowestValueOf(first)), highestValueOf(first));
+            this.max = total == 0 ? 0 : Math.max(Math.min(max, highestValueOf(last)), lowestValueOf(last));
+        }
+
+        /**
+         * Combines several snapshots, e.g. of the recorders of different hosts or endpoints.
+         * @author @francescoceliento@github.com
+         *
+         * @param snapshots
+         * @return Snapshot
+         */
+        public static Snapshot merge(Snapshot... snapshots) {
+            long[] counts = new long[BUCKETS];
+            long sum = 0;
+            long min = Long.MAX_VALUE;
+            long max = 0;
+            for (Snapshot snapshot : snapshots) {
+                for (int i = 0; i < BUCKETS; i++) {
+                    counts[i] += snapshot.counts[i];
+                }
+                sum += snapshot.sum;
+                if (snapshot.count > 0) {
+                    min = Math.min(min, snapshot.min);
+                    max = Math.max(max, snapshot.max);
+                }
+            }
+            return new Snapshot(counts, sum, min, max);
+        }
+
+        /**
+         * Returns this snapshot combined with another.
+         * @author @francescoceliento@github.com
+         *
+         * @param other
+         * @return Snapshot
+         */
+        public Snapshot merge(Snapshot other) {
+            return merge(this, other);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMin() {
+            return min;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * Returns the value below which the given percentage of the latencies falls (e.g. 99.9),
+         * in nanoseconds. 0 if nothing was recorded.
+         * @author @francescoceliento@github.com
+         *
+         * @param percentile between 0 and 100
+         * @return long
+         */
+        public long getPercentile(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("The percentile must be between 0 and 100: " + percentile);
+            }
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    // il bucket può superare il massimo osservato
+                    return Math.min(highestValueOf(i), max);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * Returns the percentile in the given unit.
+         * @author @francescoceliento@github.com
+         *
+         * @param percentile
+         * @param unit
+         * @return double
+         */
+        public double getPercentile(double percentile, TimeUnit unit) {
+            return (double) getPercentile(percentile) / unit.toNanos(1);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Snapshot && Arrays.equals(counts, ((Snapshot) other).counts)
+                    && sum == ((Snapshot) other).sum && min == ((Snapshot) other).min && max == ((Snapshot) other).max;
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(counts);
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count
+                    + ", mean=" + Stopwatch.format((long) getMean())
+                    + ", p50=" + Stopwatch.format(getPercentile(50))
+                    + ", p90=" + Stopwatch.format(getPercentile(90))
+                    + ", p99=" + Stopwatch.format(getPercentile(99))
+                    + ", p999=" + Stopwatch.format(getPercentile(99.9))
+                    + ", max=" + Stopwatch.format(max);
+        }
+    }
+
+}
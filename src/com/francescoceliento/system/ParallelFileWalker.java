@@ -0,0 +1,218 @@
+package com.francescoceliento.system;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Walks a directory tree in parallel: every directory is a ForkJoin task that lists its entries,
+ * reads the attributes of each entry once and forks a task per subdirectory. The walk stops as
+ * soon as the requested number of matches has been found. Symbolic links to files are followed,
+ * links to directories are not traversed (as Files.walk).
+ * @author @francescoceliento@github.com
+ */
+final class ParallelFileWalker {
+
+    // I/O bloccante: più thread dei core per sovrapporre le attese del file system
+    static final ForkJoinPool POOL = new ForkJoinPool(Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+
+    // Decide se un file regolare fa parte dei risultati
+    interface EntryMatcher {
+        /**
+         * @param path
+         * @param attributes attributes of the file (of the target for symbolic links)
+         * @param depth 1 for the entries of the root directory
+         * @return boolean
+         */
+        boolean matches(Path path, BasicFileAttributes attributes, int depth);
+
+        /**
+         * Called before a subdirectory is walked.
+         * @param directory
+         * @param attributes attributes of the directory
+         * @param depth depth of the directory entry, 1 for the subdirectories of the root
+         * @return false to skip the subdirectory
+         */
+        default boolean enterDirectory(Path directory, BasicFileAttributes attributes, int depth) {
+            return true;
+        }
+    }
+
+    // Legge gli attributi di una voce con una sola chiamata al file system
+    interface AttributeReader {
+        BasicFileAttributes read(Path path, LinkOption... options) throws IOException;
+    }
+
+    private final int maxDepth;
+    private final int maxResults;
+    private final EntryMatcher matcher;
+    private final AttributeReader reader;
+    private final boolean followLinks;
+    private final ConcurrentLinkedQueue<Path> results = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger found = new AtomicInteger();
+    private volatile boolean stopped;
+
+    private ParallelFileWalker(int maxDepth, int maxResults, EntryMatcher matcher,
+            AttributeReader reader, boolean followLinks) {
+        this.maxDepth = maxDepth;
+        this.maxResults = maxResults;
+        this.matcher = matcher;
+        this.reader = reader;
+        this.followLinks = followLinks;
+    }
+
+    /**
+     * Returns up to maxResults regular files under root, within maxDepth levels, accepted by the matcher.
+     * The order of the results is not defined. Subdirectories that cannot be read are skipped.
+     * @author @francescoceliento@github.com
+     *
+     * @param root
+     * @param maxDepth
+     * @param maxResults
+     * @param matcher
+     * @return List<Path>
+     * @throws IOException if the root directory cannot be read
+     */
+    static List<Path> walk(Path root, int maxDepth, int maxResults, EntryMatcher matcher) throws IOException {
+        return walk(root, maxDepth, maxResults, matcher, BasicFileAttributes.class, true);
+    }
+
+    /**
+     * As walk(root, maxDepth, maxResults, matcher), reading the attributes of every entry as
+     * attributesType (e.g. PosixFileAttributes) in the same call. If followLinks is false the
+     * symbolic links are skipped.
+     * @author @francescoceliento@github.com
+     *
+     * @param root
+     * @param maxDepth
+     * @param maxResults
+     * @param matcher
+     * @param attributesType
+     * @param followLinks
+     * @return List<Path>
+     * @throws IOException if the root directory cannot be read
+     */
+    static List<Path> walk(Path root, int maxDepth, int maxResults, EntryMatcher matcher,
+            Class<? extends BasicFileAttributes> attributesType, boolean followLinks) throws IOException {
+        return walk(root, maxDepth, maxResults, matcher, (path, options) -> Files.readAttributes(path, attributesType, options), followLinks);
+    }
+
+    /**
+     * As walk(root, maxDepth, maxResults, matcher), reading the attributes of every entry
+     * with the given reader. If followLinks is false the symbolic links are skipped.
+     * @author @francescoceliento@github.com
+     *
+     * @param root
+     * @param maxDepth
+     * @param maxResults
+     * @param matcher
+     * @param reader
+     * @param followLinks
+     * @return List<Path>
+     * @throws IOException if the root directory cannot be read
+     */
+    static List<Path> walk(Path root, int maxDepth, int maxResults, EntryMatcher matcher,
+            AttributeReader reader, boolean followLinks) throws IOException {
+        if (maxResults <= 0 || maxDepth < 1) {
+            return new ArrayList<>();
+        }
+        ParallelFileWalker walker = new ParallelFileWalker(maxDepth, maxResults, matcher, reader, followLinks);
+        // la radice viene letta subito per riportare l'errore al chiamante
+        DirectoryStream<Path> rootStream = Files.newDirectoryStream(root);
+        POOL.invoke(walker.new DirectoryTask(root, rootStream, 1));
+        return new ArrayList<>(walker.results);
+    }
+
+    private final class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+        private final int depth;
+        private transient DirectoryStream<Path> opened;
+
+        DirectoryTask(Path directory, DirectoryStream<Path> opened, int depth) {
+            this.directory = directory;
+            this.opened = opened;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            if (stopped) {
+                close(opened);
+                return;
+            }
+            List<DirectoryTask> subdirectories = null;
+            try (DirectoryStream<Path> stream = opened != null ? opened : Files.newDirectoryStream(directory)) {
+                opened = null;
+                for (Path entry : stream) {
+                    if (stopped) {
+                        break;
+                    }
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = reader.read(entry, LinkOption.NOFOLLOW_LINKS);
+                        if (attributes.isSymbolicLink()) {
+                            if (!followLinks) {
+                                continue;
+                            }
+                            attributes = reader.read(entry);
+                            if (attributes.isDirectory()) {
+                                continue;
+                            }
+                        }
+                    } catch (IOException e) {
+                        // file rimosso durante la scansione o link non valido
+                        continue;
+                    }
+                    if (attributes.isDirectory()) {
+                        if (depth < maxDepth && matcher.enterDirectory(entry, attributes, depth)) {
+                            if (subdirectories == null) {
+                                subdirectories = new ArrayList<>();
+                            }
+                            subdirectories.add(new DirectoryTask(entry, null, depth + 1));
+                        }
+                    } else if (attributes.isRegularFile() && matcher.matches(entry, attributes, depth)) {
+                        accept(entry);
+                    }
+                }
+            } catch (IOException | DirectoryIteratorException e) {
+                // sottocartella non leggibile: viene saltata
+            }
+            if (subdirectories != null && !stopped) {
+                invokeAll(subdirectories);
+            }
+        }
+    }
+
+    private void accept(Path path) {
+        int count = found.incrementAndGet();
+        if (count <= maxResults) {
+            results.add(path);
+        }
+        if (count >= maxResults) {
+            stopped = true;
+        }
+    }
+
+    private static void close(DirectoryStream<Path> stream) {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                // ignorato
+            }
+        }
+    }
+
+}
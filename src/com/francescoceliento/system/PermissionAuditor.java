@@ -0,0 +1,518 @@
+package com.francescoceliento.system;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.GroupPrincipal;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.UserPrincipal;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.francescoceliento.system.FilePermissionManager.Attributes;
+
+/**
+ * Compares a directory tree with a permission policy, e.g. "*.sh must be 755, nothing world-writable,
+ * no setuid outside /opt/bin". The tree is visited in parallel and each entry is read once, with its
+ * special bits, as a FilePermissionManager.Attributes snapshot; the rules are compiled to bit masks,
+ * so checking an entry is a few integer comparisons. Violations are passed to a handler as soon as
+ * they are found and can be remediated in batches, with one write per attribute and per file.
+ * Symbolic links are neither followed nor checked; an entry replaced by a link between the visit and
+ * its batch is not followed either, and is reported as failed.
+ * @author @francescoceliento@github.com
+ */
+public final class PermissionAuditor {
+
+    // Correzioni accumulate prima di essere applicate
+    private static final int BATCH_SIZE = 1024;
+
+    private final Rule[] rules;
+
+    /**
+     * Receives the violations while the tree is visited. It is called concurrently by the
+     * threads of the visit, so it must be thread-safe.
+     * @author @francescoceliento@github.com
+     */
+    public interface ViolationHandler {
+        void onViolation(Violation violation);
+    }
+
+    /**
+     * Creates an auditor for the given rules. The rules must not be changed afterwards.
+     * @author @francescoceliento@github.com
+     *
+     * @param rules
+     */
+    public PermissionAuditor(Rule... rules) {
+        if (rules.length == 0) {
+            throw new IllegalArgumentException("At least one rule is required.");
+        }
+        this.rules = rules.clone();
+    }
+
+    public PermissionAuditor(List<Rule> rules) {
+        this(rules.toArray(new Rule[0]));
+    }
+
+    /**
+     * Checks root and everything under it without changing anything.
+     * @author @francescoceliento@github.com
+     *
+     * @param root
+     * @param handler
+     * @return AuditResult
+     * @throws IOException if root cannot be read
+     */
+    public AuditResult audit(Path root, ViolationHandler handler) throws IOException {
+        return audit(root, handler, false);
+    }
+
+    /**
+     * Checks root and everything under it. If remediate is true the violating entries are corrected
+     * in batches while the visit goes on: mode, owner and group are set to the values required by the
+     * violated rules, the later rules prevailing on the earlier ones.
+     * @author @francescoceliento@github.com
+     *
+     * @param root
+     * @param handler receives each violation, may be null
+     * @param remediate
+     * @return AuditResult
+     * @throws IOException if root cannot be read
+     */
+    public AuditResult audit(Path root, ViolationHandler handler, boolean remediate) throws IOException {
+        Path start = root.toAbsolutePath().normalize();
+        Run run = new Run(handler, remediate, start.getFileSystem().getUserPrincipalLookupService());
+        Attributes rootAttributes = FilePermissionManager.readAttributes(start, LinkOption.NOFOLLOW_LINKS);
+        run.check(start, rootAttributes, 0);
+        if (rootAttributes.isDirectory()) {
+            ParallelFileWalker.walk(start, Integer.MAX_VALUE, Integer.MAX_VALUE, new ParallelFileWalker.EntryMatcher() {
+                @Override
+                public boolean matches(Path path, BasicFileAttributes attributes, int depth) {
+                    run.check(path, (Attributes) attributes, depth);
+                    return false;
+                }
+
+                @Override
+                public boolean enterDirectory(Path directory, BasicFileAttributes attributes, int depth) {
+                    run.check(directory, (Attributes) attributes, depth);
+                    return true;
+                }
+            }, FilePermissionManager::readAttributes, false);
+        }
+        run.flush();
+        return run.result;
+    }
+
+    /**
+     * A policy rule: which entries it applies to and what their permissions must be. Modes and bits
+     * use the chmod numeric notation of FilePermissionManager (e.g. 755, 4000, 2).
+     * @author @francescoceliento@github.com
+     */
+    public static final class Rule {
+        private final String description;
+        private FileQuery.Matcher query;
+        private final List<Path> included = new ArrayList<>();
+        private final List<Path> excluded = new ArrayList<>();
+        private boolean files = true;
+        private boolean directories = true;
+        private int exactMode = -1;
+        private int forbiddenBits;
+        private int requiredBits;
+        private String owner;
+        private String group;
+
+        /**
+         * Creates a rule applying to every entry, to be restricted with the other methods.
+         * @author @francescoceliento@github.com
+         *
+         * @param description reported with the violations
+         */
+        public Rule(String description) {
+            this.description = description;
+        }
+
+        /**
+         * Applies the rule only to the entries accepted by the query (name, extensions, glob...).
+         * @author @francescoceliento@github.com
+         *
+         * @param query
+         * @return this rule
+         */
+        public Rule matching(FileQuery query) {
+            this.query = query.compile();
+            return this;
+        }
+
+        /**
+         * Applies the rule only under the given directory; can be repeated.
+         * @author @francescoceliento@github.com
+         *
+         * @param directory
+         * @return this rule
+         */
+        public Rule under(String directory) {
+            included.add(Paths.get(directory).toAbsolutePath().normalize());
+            return this;
+        }
+
+        /**
+         * Does not apply the rule under the given directory; can be repeated.
+         * @author @francescoceliento@github.com
+         *
+         * @param directory
+         * @return this rule
+         */
+        public Rule notUnder(String directory) {
+            excluded.add(Paths.get(directory).toAbsolutePath().normalize());
+            return this;
+        }
+
+        public Rule filesOnly() {
+            this.files = true;
+            this.directories = false;
+            return this;
+        }
+
+        public Rule directoriesOnly() {
+            this.files = false;
+            this.directories = true;
+            return this;
+        }
+
+        /**
+         * Requires exactly this mode, special bits included (e.g. 755 or 4755).
+         * @author @francescoceliento@github.com
+         *
+         * @param chmod
+         * @return this rule
+         */
+        public Rule mode(int chmod) {
+            this.exactMode = toMode(chmod);
+            return this;
+        }
+
+        /**
+         * Forbids the given bits (e.g. 2 for world-writable, 4000 for setuid).
+         * @author @francescoceliento@github.com
+         *
+         * @param chmod
+         * @return this rule
+         */
+        public Rule forbid(int chmod) {
+            this.forbiddenBits |= toMode(chmod);
+            return this;
+        }
+
+        /**
+         * Requires the given bits (e.g. 400 for owner-readable).
+         * @author @francescoceliento@github.com
+         *
+         * @param chmod
+         * @return this rule
+         */
+        public Rule require(int chmod) {
+            this.requiredBits |= toMode(chmod);
+            return this;
+        }
+
+        public Rule owner(String owner) {
+            this.owner = owner;
+            return this;
+        }
+
+        public Rule group(String group) {
+            this.group = group;
+            return this;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+
+        boolean appliesTo(Path path, Attributes attributes, int depth) {
+            if (attributes.isDirectory() ? !directories : !files) {
+                return false;
+            }
+            if (!included.isEmpty() && !startsWithAny(path, included)) {
+                return false;
+            }
+            if (startsWithAny(path, excluded)) {
+                return false;
+            }
+            return query == null || query.matches(path, attributes, depth);
+        }
+
+        boolean isSatisfiedBy(Attributes attributes) {
+            int mode = attributes.getMode();
+            return (exactMode < 0 || mode == exactMode)
+                    && (mode & forbiddenBits) == 0
+                    && (mode & requiredBits) == requiredBits
+                    && (owner == null || owner.equals(attributes.getOwner()))
+                    && (group == null || group.equals(attributes.getGroup()));
+        }
+
+        // Modo corretto secondo la regola
+        int fix(int mode) {
+            if (exactMode >= 0) {
+                mode = exactMode;
+            }
+            return (mode & ~forbiddenBits) | requiredBits;
+        }
+
+        private static boolean startsWithAny(Path path, List<Path> directories) {
+            for (Path directory : directories) {
+                if (path.startsWith(directory)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // Notazione chmod (4 cifre ottali scritte in decimale) -> bit del modo
+        private static int toMode(int chmod) {
+            if (chmod < 0 || chmod > 7777) {
+                throw new IllegalArgumentException("Il valore Chmod deve essere tra 0 e 7777.");
+            }
+            int mode = 0;
+            for (int shift = 0; shift <= 9; shift += 3, chmod /= 10) {
+                int digit = chmod % 10;
+                if (digit > 7) {
+                    throw new IllegalArgumentException("Cifra ottale non valida nel valore Chmod: " + digit);
+                }
+                mode |= digit << shift;
+            }
+            return mode;
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+
+    /**
+     * An entry that does not satisfy a rule.
+     * @author @francescoceliento@github.com
+     */
+    public static final class Violation {
+        private final Rule rule;
+        private final Attributes attributes;
+        private final int expectedMode;
+
+        Violation(Rule rule, Attributes attributes, int expectedMode) {
+            this.rule = rule;
+            this.attributes = attributes;
+            this.expectedMode = expectedMode;
+        }
+
+        public Path getPath() {
+            return attributes.getPath();
+        }
+
+        public Rule getRule() {
+            return rule;
+        }
+
+        /**
+         * Returns the attributes read during the audit.
+         * @author @francescoceliento@github.com
+         *
+         * @return Attributes
+         */
+        public Attributes getAttributes() {
+            return attributes;
+        }
+
+        /**
+         * Returns the mode required by the rule, as bits (e.g. 0755).
+         * @author @francescoceliento@github.com
+         *
+         * @return int
+         */
+        public int getExpectedMode() {
+            return expectedMode;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %04o -> %04o %s:%s (%s)", getPath(), attributes.getMode(), expectedMode,
+                    attributes.getOwner(), attributes.getGroup(), rule);
+        }
+    }
+
+    /**
+     * Totals of an audit.
+     * @author @francescoceliento@github.com
+     */
+    public static final class AuditResult {
+        private final AtomicLong scanned = new AtomicLong();
+        private final AtomicLong violations = new AtomicLong();
+        private final AtomicLong remediated = new AtomicLong();
+        private final Queue<Path> failed = new ConcurrentLinkedQueue<>();
+
+        AuditResult() {
+        }
+
+        public long getScanned() {
+            return scanned.get();
+        }
+
+        public long getViolations() {
+            return violations.get();
+        }
+
+        public long getRemediated() {
+            return remediated.get();
+        }
+
+        /**
+         * Returns the entries that could not be remediated, including those replaced by another file
+         * or by a link after they were checked.
+         * @author @francescoceliento@github.com
+         *
+         * @return List<Path>
+         */
+        public List<Path> getFailed() {
+            return new ArrayList<>(failed);
+        }
+
+        @Override
+        public String toString() {
+            return "scanned=" + getScanned() + ", violations=" + getViolations() + ", remediated=" + getRemediated() + ", failed=" + failed.size();
+        }
+    }
+
+    // Correzione da applicare a un file
+    private static final class Fix {
+        final Path path;
+        final Object fileKey;
+        final int mode;
+        final boolean modeChanged;
+        final String owner;
+        final String group;
+
+        Fix(Path path, Object fileKey, int mode, boolean modeChanged, String owner, String group) {
+            this.path = path;
+            this.fileKey = fileKey;
+            this.mode = mode;
+            this.modeChanged = modeChanged;
+            this.owner = owner;
+            this.group = group;
+        }
+    }
+
+    // Stato di una singola esecuzione di audit
+    private final class Run {
+        final ViolationHandler handler;
+        final boolean remediate;
+        final UserPrincipalLookupService lookup;
+        final AuditResult result = new AuditResult();
+        final Queue<Fix> pending = new ConcurrentLinkedQueue<>();
+        final AtomicInteger pendingCount = new AtomicInteger();
+        // Principal risolti una sola volta per nome
+        final Map<String, UserPrincipal> owners = new ConcurrentHashMap<>();
+        final Map<String, GroupPrincipal> groups = new ConcurrentHashMap<>();
+
+        Run(ViolationHandler handler, boolean remediate, UserPrincipalLookupService lookup) {
+            this.handler = handler;
+            this.remediate = remediate;
+            this.lookup = lookup;
+        }
+
+        void check(Path path, Attributes attributes, int depth) {
+            if (attributes.isSymbolicLink()) {
+                return;
+            }
+            result.scanned.incrementAndGet();
+            int mode = attributes.getMode();
+            int desired = mode;
+            String owner = null;
+            String group = null;
+            for (Rule rule : rules) {
+                if (!rule.appliesTo(path, attributes, depth) || rule.isSatisfiedBy(attributes)) {
+                    continue;
+                }
+                result.violations.incrementAndGet();
+                if (handler != null) {
+                    handler.onViolation(new Violation(rule, attributes, rule.fix(mode)));
+                }
+                desired = rule.fix(desired);
+                if (rule.owner != null && !rule.owner.equals(attributes.getOwner())) {
+                    owner = rule.owner;
+                }
+                if (rule.group != null && !rule.group.equals(attributes.getGroup())) {
+                    group = rule.group;
+                }
+            }
+            if (remediate && (desired != mode || owner != null || group != null)) {
+                pending.add(new Fix(path, attributes.fileKey(), desired, desired != mode, owner, group));
+                // chi completa un lotto lo applica, in parallelo con la visita degli altri thread
+                if (pendingCount.incrementAndGet() % BATCH_SIZE == 0) {
+                    drain(BATCH_SIZE);
+                }
+            }
+        }
+
+        void flush() {
+            drain(Integer.MAX_VALUE);
+        }
+
+        private void drain(int max) {
+            Fix fix;
+            for (int i = 0; i < max && (fix = pending.poll()) != null; i++) {
+                apply(fix);
+            }
+        }
+
+        private void apply(Fix fix) {
+            try {
+                if (fix.owner != null || fix.group != null) {
+                    // il lotto è applicato dopo la visita: lchown non segue un link comparso nel frattempo
+                    PosixFileAttributeView view = Files.getFileAttributeView(fix.path, PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS);
+                    if (fix.owner != null) {
+                        view.setOwner(owner(fix.owner));
+                    }
+                    if (fix.group != null) {
+                        view.setGroup(group(fix.group));
+                    }
+                }
+                // dopo chown: il kernel azzera setuid/setgid quando cambia il proprietario
+                if (fix.modeChanged || fix.owner != null || fix.group != null) {
+                    FilePermissionManager.writeModeNoFollow(fix.path, fix.mode, fix.fileKey);
+                }
+                result.remediated.incrementAndGet();
+            } catch (IOException | SecurityException e) {
+                result.failed.add(fix.path);
+            }
+        }
+
+        private UserPrincipal owner(String name) throws IOException {
+            UserPrincipal principal = owners.get(name);
+            if (principal == null) {
+                principal = lookup.lookupPrincipalByName(name);
+                owners.put(name, principal);
+            }
+            return principal;
+        }
+
+        private GroupPrincipal group(String name) throws IOException {
+            GroupPrincipal principal = groups.get(name);
+            if (principal == null) {
+                principal = lookup.lookupPrincipalByGroupName(name);
+                groups.put(name, principal);
+            }
+            return principal;
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+package com.francescoceliento.system;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures elapsed time with System.nanoTime, which is monotonic and not affected by changes of
+ * the system clock. Not thread-safe: use one stopwatch per measured operation.
+ * @author @francescoceliento@github.com
+ */
+public final class Stopwatch {
+
+    private long startNanos;
+    private long elapsedNanos;
+    private boolean running;
+
+    private Stopwatch() {
+    }
+
+    /**
+     * Creates a stopped stopwatch with zero elapsed time.
+     * @author @francescoceliento@github.com
+     *
+     * @return Stopwatch
+     */
+    public static Stopwatch create() {
+        return new Stopwatch();
+    }
+
+    /**
+     * Creates a running stopwatch.
+     * @author @francescoceliento@github.com
+     *
+     * @return Stopwatch
+     */
+    public static Stopwatch start() {
+        return new Stopwatch().resume();
+    }
+
+    /**
+     * Starts measuring again, adding to the time already elapsed.
+     * @author @francescoceliento@github.com
+     *
+     * @return this stopwatch
+     */
+    public Stopwatch resume() {
+        if (!running) {
+            running = true;
+            startNanos = System.nanoTime();
+        }
+        return this;
+    }
+
+    /**
+     * Stops measuring; the elapsed time is kept.
+     * @author @francescoceliento@github.com
+     *
+     * @return this stopwatch
+     */
+    public Stopwatch stop() {
+        if (running) {
+            elapsedNanos += System.nanoTime() - startNanos;
+            running = false;
+        }
+        return this;
+    }
+
+    /**
+     * Stops the stopwatch and clears the elapsed time.
+     * @author @francescoceliento@github.com
+     *
+     * @return this stopwatch
+     */
+    public Stopwatch reset() {
+        elapsedNanos = 0;
+        running = false;
+        return this;
+    }
+
+    /**
+     * Returns the elapsed time and starts measuring again from zero, to time consecutive laps.
+     * @author @francescoceliento@github.com
+     *
+     * @return long elapsed nanoseconds
+     */
+    public long lap() {
+        long now = System.nanoTime();
+        long elapsed = elapsedNanos + (running ? now - startNanos : 0);
+        elapsedNanos = 0;
+        startNanos = now;
+        running = true;
+        return elapsed;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Returns the elapsed time in nanoseconds, including the current run if the stopwatch is running.
+     * @author @francescoceliento@github.com
+     *
+     * @return long
+     */
+    public long elapsedNanos() {
+        return running ? elapsedNanos + System.nanoTime() - startNanos : elapsedNanos;
+    }
+
+    /**
+     * Returns the elapsed time in the given unit, truncated.
+     * @author @francescoceliento@github.com
+     *
+     * @param unit
+     * @return long
+     */
+    public long elapsed(TimeUnit unit) {
+        return unit.convert(elapsedNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Formats a duration in nanoseconds with the most readable unit (e.g. "12.35 ms").
+     * @author @francescoceliento@github.com
+     *
+     * @param nanos
+     * @return String
+     */
+    public static String format(long nanos) {
+        if (nanos < 1_000L) {
+            return nanos + " ns";
+        }
+        if (nanos < 1_000_000L) {
+            return String.format("%.2f us", nanos / 1e3);
+        }
+        if (nanos < 1_000_000_000L) {
+            return String.format("%.2f ms", nanos / 1e6);
+        }
+        return String.format("%.3f s", nanos / 1e9);
+    }
+
+    @Override
+    public String toString() {
+        return format(elapsedNanos());
+    }
+
+}
@@ -0,0 +1,365 @@
+package com.francescoceliento.system;
+
+import java.io.Closeable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs delayed and periodic tasks with a single thread, using a hashed timing wheel: the wheel has one
+ * bucket per tick and a timeout goes to the bucket of its deadline, with the number of full turns still
+ * to wait. Scheduling and cancelling are O(1): the calling thread only adds the timeout to a lock-free
+ * queue, which the ticker thread moves into the wheel at the next tick. Millions of pending timeouts
+ * cost one small object each and no thread.
+ * Tasks run late by at most one tick. They run on the ticker thread, so they must be short, unless an
+ * executor is given.
+ * @author @francescoceliento@github.com
+ */
+public final class TimerScheduler implements Closeable {
+
+    public static final long DEFAULT_TICK_MILLIS = 10;
+    public static final int DEFAULT_TICKS_PER_WHEEL = 512;
+
+    // Timeout spostati dalla coda alla ruota a ogni tick, per non ritardare la scadenza dei bucket
+    private static final int MAX_TRANSFERS_PER_TICK = 100_000;
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Executor executor;
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pending = new AtomicLong();
+    private final long startTime;
+    private final Thread ticker;
+    private volatile boolean running = true;
+    // Letto e scritto solo dal thread del ticker
+    private long tick;
+
+    /**
+     * Creates a scheduler with ticks of 10 ms and 512 buckets, running the tasks on the ticker thread.
+     * @author @francescoceliento@github.com
+     */
+    public TimerScheduler() {
+        this(DEFAULT_TICK_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_TICKS_PER_WHEEL, null);
+    }
+
+    /**
+     * Creates a scheduler.
+     * @author @francescoceliento@github.com
+     *
+     * @param tickDuration precision of the timeouts
+     * @param unit
+     * @param ticksPerWheel number of buckets, rounded up to a power of two
+     * @param executor runs the tasks; null to run them on the ticker thread
+     */
+    public TimerScheduler(long tickDuration, TimeUnit unit, int ticksPerWheel, Executor executor) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("The tick duration must be positive: " + tickDuration);
+        }
+        if (ticksPerWheel <= 0 || ticksPerWheel > 1 << 30) {
+            throw new IllegalArgumentException("Invalid number of ticks per wheel: " + ticksPerWheel);
+        }
+        int size = Integer.highestOneBit(ticksPerWheel);
+        if (size < ticksPerWheel) {
+            size <<= 1;
+        }
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.executor = executor;
+        this.startTime = System.nanoTime();
+        this.ticker = new Thread(this::run, "saria-timer-" + THREAD_COUNTER.incrementAndGet());
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+    }
+
+    /**
+     * Runs the task once after the delay.
+     * @author @francescoceliento@github.com
+     *
+     * @param task
+     * @param delay
+     * @param unit
+     * @return Timeout to cancel the task
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        return add(task, delay, 0, unit);
+    }
+
+    /**
+     * Runs the task after initialDelay and then every period, measured from the planned start of the
+     * previous run so that the rate does not drift. Exceptions thrown by the task are printed and do
+     * not stop the following runs.
+     * @author @francescoceliento@github.com
+     *
+     * @param task
+     * @param initialDelay
+     * @param period
+     * @param unit
+     * @return Timeout to cancel the task
+     */
+    public Timeout scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("The period must be positive: " + period);
+        }
+        return add(task, initialDelay, unit.toNanos(period), unit);
+    }
+
+    /**
+     * Returns the number of scheduled and not yet expired or cancelled timeouts.
+     * @author @francescoceliento@github.com
+     *
+     * @return long
+     */
+    public long getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Stops the ticker thread; the pending tasks are discarded.
+     * @author @francescoceliento@github.com
+     */
+    @Override
+    public void close() {
+        running = false;
+        if (Thread.currentThread() != ticker) {
+            ticker.interrupt();
+            try {
+                ticker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private Timeout add(Runnable task, long delay, long periodNanos, TimeUnit unit) {
+        if (task == null) {
+            throw new IllegalArgumentException("The task cannot be null.");
+        }
+        if (!running) {
+            throw new IllegalStateException("The scheduler is closed.");
+        }
+        // Scadenza relativa all'avvio, saturata: un ritardo "infinito" (es. Long.MAX_VALUE) non deve diventare negativo
+        long elapsed = System.nanoTime() - startTime;
+        long deadline = elapsed + Math.min(unit.toNanos(Math.max(0, delay)), Long.MAX_VALUE - elapsed);
+        Timeout timeout = new Timeout(this, task, deadline, periodNanos);
+        pending.incrementAndGet();
+        scheduled.add(timeout);
+        return timeout;
+    }
+
+    private void run() {
+        while (running) {
+            long now = waitForNextTick();
+            if (now < 0) {
+                continue;
+            }
+            removeCancelled();
+            transferScheduled();
+            Bucket bucket = wheel[(int) (tick & mask)];
+            tick++;
+            bucket.expire(now);
+        }
+    }
+
+    // Attende l'inizio del tick successivo; restituisce l'istante corrente relativo all'avvio, -1 se interrotto
+    private long waitForNextTick() {
+        long deadline = tickNanos * (tick + 1);
+        while (true) {
+            long now = System.nanoTime() - startTime;
+            long wait = deadline - now;
+            if (wait <= 0) {
+                return now;
+            }
+            LockSupport.parkNanos(this, wait);
+            if (Thread.interrupted() && !running) {
+                return -1;
+            }
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    private void transferScheduled() {
+        Timeout timeout;
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK && (timeout = scheduled.poll()) != null; i++) {
+            if (timeout.state.get() == Timeout.WAITING) {
+                place(timeout);
+            }
+        }
+    }
+
+    // Inserisce il timeout nel bucket della sua scadenza, con i giri completi ancora da attendere
+    private void place(Timeout timeout) {
+        long expiryTick = Math.max(timeout.deadline / tickNanos, tick);
+        timeout.rounds = (expiryTick - tick) / wheel.length;
+        wheel[(int) (expiryTick & mask)].add(timeout);
+    }
+
+    private void execute(Timeout timeout) {
+        if (executor == null) {
+            timeout.runTask();
+            return;
+        }
+        try {
+            executor.execute(timeout::runTask);
+        } catch (RuntimeException e) {
+            System.err.println("Errore durante l'avvio del timer: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Handle of a scheduled task.
+     * @author @francescoceliento@github.com
+     */
+    public static final class Timeout {
+        private static final int WAITING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final TimerScheduler scheduler;
+        private final Runnable task;
+        private final long period;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+        // Campi gestiti solo dal thread del ticker
+        private long deadline;
+        private long rounds;
+        private Bucket bucket;
+        private Timeout previous;
+        private Timeout next;
+
+        Timeout(TimerScheduler scheduler, Runnable task, long deadline, long period) {
+            this.scheduler = scheduler;
+            this.task = task;
+            this.deadline = deadline;
+            this.period = period;
+        }
+
+        /**
+         * Cancels the task; a periodic task is not run again. Returns false if the task has already
+         * run (for one-shot tasks) or was already cancelled.
+         * @author @francescoceliento@github.com
+         *
+         * @return boolean
+         */
+        public boolean cancel() {
+            if (!state.compareAndSet(WAITING, CANCELLED)) {
+                return false;
+            }
+            scheduler.pending.decrementAndGet();
+            // la rimozione dal bucket avviene nel thread del ticker
+            scheduler.cancelled.add(this);
+            return true;
+        }
+
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        /**
+         * Returns true if a one-shot task has been started.
+         * @author @francescoceliento@github.com
+         *
+         * @return boolean
+         */
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+
+        public boolean isPeriodic() {
+            return period > 0;
+        }
+
+        private void runTask() {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.err.println("Errore durante l'esecuzione del timer: " + e);
+            }
+        }
+    }
+
+    // Lista doppiamente collegata dei timeout di un tick: inserimento e rimozione O(1)
+    private final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.previous = tail;
+                tail = timeout;
+            }
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.bucket != this) {
+                return;
+            }
+            if (timeout.previous != null) {
+                timeout.previous.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.previous = timeout.previous;
+            } else {
+                tail = timeout.previous;
+            }
+            timeout.previous = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+
+        void expire(long now) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.rounds > 0) {
+                    timeout.rounds--;
+                } else if (timeout.deadline <= now) {
+                    remove(timeout);
+                    fire(timeout);
+                }
+                timeout = next;
+            }
+        }
+
+        private void fire(Timeout timeout) {
+            if (timeout.period == 0) {
+                if (timeout.state.compareAndSet(Timeout.WAITING, Timeout.EXPIRED)) {
+                    pending.decrementAndGet();
+                    execute(timeout);
+                }
+                return;
+            }
+            if (timeout.state.get() != Timeout.WAITING) {
+                return;
+            }
+            // Periodico: prossima scadenza calcolata dalla precedente, senza deriva (saturata come in add)
+            timeout.deadline += Math.min(timeout.period, Long.MAX_VALUE - timeout.deadline);
+            place(timeout);
+            execute(timeout);
+        }
+    }
+
+}
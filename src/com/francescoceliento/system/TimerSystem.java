@@ -1,7 +1,8 @@
 package com.francescoceliento.system;
 
 /**
- * Manages timers
+ * Manages timers. These methods block the calling thread: to run many delayed or periodic
+ * tasks use TimerScheduler. To measure durations use Stopwatch and LatencyRecorder.
  * @author @francescoceliento@github.com
  */
 public class TimerSystem {
@@ -13,10 +14,21 @@ public class TimerSystem {
 	 * @param millisecond
 	 */
 	public static void sleep(int millisecond) {
+		sleep((long) millisecond);
+	}
+	
+	/**
+	 * Executes Thread.sleep with internal exception handling. If the thread is interrupted
+	 * the sleep ends early and the interrupt flag is restored for the caller.
+	 * @author @francescoceliento@github.com
+	 * 
+	 * @param millisecond
+	 */
+	public static void sleep(long millisecond) {
 		try {
             Thread.sleep(millisecond);
         } catch (InterruptedException e) {
-            e.printStackTrace();
+            Thread.currentThread().interrupt();
         }
 	}
 	
@@ -27,7 +39,7 @@ public class TimerSystem {
 	 * @param seconds
 	 */
 	public static void waitForSeconds(int seconds) {
-		sleep(seconds*1000);
+		sleep(seconds * 1000L);
 	}
 	
 	/**
@@ -37,7 +49,7 @@ public class TimerSystem {
 	 * @param minutes
 	 */
 	public static void waitForMinutes(int minutes) {
-		sleep(minutes*60*1000);
+		sleep(minutes * 60_000L);
 	}
 
 }
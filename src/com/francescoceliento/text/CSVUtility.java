@@ -8,7 +8,9 @@ package com.francescoceliento.text;
 public class CSVUtility {
 	
 	/**
-	 * Create a CSV row from a set of fields.
+	 * Create a CSV row from a set of fields. Fields containing the separator, quotes or
+	 * line breaks are quoted as in RFC 4180; null fields are left empty.
+	 * For many rows use CsvWriter, which writes directly to the output.
 	 * @author @francescoceliento@github.com
 	 *
 	 * @param separator
@@ -16,13 +18,24 @@ public class CSVUtility {
 	 * @return String
 	 */
 	public static String makeRow(String separator, String...fields) {
-		String newRow = "";
+		StringBuilder newRow = new StringBuilder();
 		
-		for (String value : fields) {
-			newRow = value + fields + separator;
+		for (int i = 0; i < fields.length; i++) {
+			if (i > 0) {
+				newRow.append(separator);
+			}
+			String value = fields[i];
+			if (value == null) {
+				continue;
+			}
+			if (value.contains(separator) || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+				newRow.append('"').append(value.replace("\"", "\"\"")).append('"');
+			} else {
+				newRow.append(value);
+			}
 		}
 		
-		return newRow;
+		return newRow.toString();
 	}
 
 }
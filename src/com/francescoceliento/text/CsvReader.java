@@ -0,0 +1,424 @@
+package com.francescoceliento.text;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Reads large CSV files (RFC 4180, quoted fields may contain separators, quotes and line breaks)
+ * by memory-mapping them with FileChannel.map. The file is split into chunks at record boundaries:
+ * the quote parity at each nominal split point is computed in parallel, so a line break inside a
+ * quoted field is never taken as a boundary. Chunks are then parsed in parallel on a ForkJoin pool
+ * and every record is passed to the handler as a CsvRow view over the mapped bytes.
+ * The charset must be ASCII-compatible (UTF-8, ISO-8859-x, windows-125x).
+ * @author @francescoceliento@github.com
+ */
+public class CsvReader {
+
+	public static final int DEFAULT_CHUNK_SIZE = 32 * 1024 * 1024;
+
+	private final Path file;
+	private final byte separator;
+	private Charset charset = StandardCharsets.UTF_8;
+	private boolean skipHeader;
+	private int chunkSize = DEFAULT_CHUNK_SIZE;
+	private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+	/**
+	 * Receives the records. In parallel mode it is called concurrently from several threads.
+	 * @author @francescoceliento@github.com
+	 */
+	public interface RowHandler {
+		void onRow(CsvRow row);
+	}
+
+	/**
+	 * Creates a reader of the file with comma separator.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param file
+	 */
+	public CsvReader(Path file) {
+		this(file, ',');
+	}
+
+	/**
+	 * Creates a reader of the file with the given ASCII separator.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param file
+	 * @param separator
+	 */
+	public CsvReader(Path file, char separator) {
+		if (file == null) {
+			throw new IllegalArgumentException("The file cannot be null.");
+		}
+		if (separator > 127 || separator == '"' || separator == '\r' || separator == '\n') {
+			throw new IllegalArgumentException("Invalid separator: " + separator);
+		}
+		this.file = file;
+		this.separator = (byte) separator;
+	}
+
+	public void setCharset(Charset charset) {
+		this.charset = charset;
+	}
+
+	/**
+	 * If true the first record is treated as header and not passed to the handler.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param skipHeader
+	 */
+	public void setSkipHeader(boolean skipHeader) {
+		this.skipHeader = skipHeader;
+	}
+
+	/**
+	 * Sets the nominal size of the chunks parsed in parallel (the real chunks end at the next record boundary).
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param chunkSize
+	 */
+	public void setChunkSize(int chunkSize) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("The chunk size must be positive.");
+		}
+		this.chunkSize = chunkSize;
+	}
+
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Returns the first record of the file, or null if the file is empty.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @return String[]
+	 * @throws IOException
+	 */
+	public String[] readHeader() throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size == 0) {
+				return null;
+			}
+			// la prima riga sta quasi sempre nel primo blocco; altrimenti si allarga la finestra
+			for (long window = Math.min(size, 64 * 1024); ; window = Math.min(size, window * 4)) {
+				MappedByteBuffer data = map(channel, 0, window);
+				CsvRow row = new CsvRow(charset);
+				int end = parseRecord(data, 0, (int) window, row, 0, window == size);
+				if (end >= 0) {
+					return row.toArray();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the file in order on the calling thread.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param handler
+	 * @return the number of records passed to the handler
+	 * @throws IOException
+	 */
+	public long read(RowHandler handler) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long[] bounds = boundaries(channel, false);
+			long rows = 0;
+			for (int i = 0; i + 1 < bounds.length; i++) {
+				rows += parseChunk(channel, bounds[i], bounds[i + 1], i == 0 && skipHeader, handler);
+			}
+			return rows;
+		}
+	}
+
+	/**
+	 * Reads the file parsing the chunks in parallel. The handler must be thread-safe;
+	 * records of the same chunk arrive in order, CsvRow.getOffset() gives the global order.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param handler
+	 * @return the number of records passed to the handler
+	 * @throws IOException
+	 */
+	public long readParallel(RowHandler handler) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long[] bounds = boundaries(channel, true);
+			try {
+				return pool.invoke(new ParseTask(channel, bounds, 0, bounds.length - 1, handler));
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+		}
+	}
+
+	// Analizza in parallelo gli intervalli di chunk [from, to)
+	private final class ParseTask extends RecursiveTask<Long> {
+		private static final long serialVersionUID = 1L;
+
+		private final FileChannel channel;
+		private final long[] bounds;
+		private final int from;
+		private final int to;
+		private final RowHandler handler;
+
+		ParseTask(FileChannel channel, long[] bounds, int from, int to, RowHandler handler) {
+			this.channel = channel;
+			this.bounds = bounds;
+			this.from = from;
+			this.to = to;
+			this.handler = handler;
+		}
+
+		@Override
+		protected Long compute() {
+			if (to - from <= 1) {
+				if (to == from) {
+					return 0L;
+				}
+				try {
+					return parseChunk(channel, bounds[from], bounds[to], from == 0 && skipHeader, handler);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+			int middle = (from + to) >>> 1;
+			ParseTask left = new ParseTask(channel, bounds, from, middle, handler);
+			left.fork();
+			long right = new ParseTask(channel, bounds, middle, to, handler).compute();
+			return left.join() + right;
+		}
+	}
+
+	// Conta le virgolette di un blocco nominale
+	private final class QuoteCountTask extends RecursiveTask<Long> {
+		private static final long serialVersionUID = 1L;
+
+		private final FileChannel channel;
+		private final long start;
+		private final long end;
+
+		QuoteCountTask(FileChannel channel, long start, long end) {
+			this.channel = channel;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected Long compute() {
+			try {
+				MappedByteBuffer data = map(channel, start, end - start);
+				long quotes = 0;
+				for (int i = 0, length = (int) (end - start); i < length; i++) {
+					if (data.get(i) == '"') {
+						quotes++;
+					}
+				}
+				return quotes;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	// Confini dei chunk: inizio di un record dopo ogni punto nominale, calcolato dalla parità delle virgolette.
+	// Con parallel false i blocchi vengono contati nel thread chiamante, senza usare il pool
+	private long[] boundaries(FileChannel channel, boolean parallel) throws IOException {
+		long size = channel.size();
+		int blocks = (int) Math.max(1, (size + chunkSize - 1) / chunkSize);
+		if (blocks == 1) {
+			return new long[] { 0, size };
+		}
+
+		// 1. Virgolette per blocco nominale, in parallelo se richiesto
+		List<QuoteCountTask> counts = new ArrayList<>(blocks);
+		for (int i = 0; i < blocks; i++) {
+			counts.add(new QuoteCountTask(channel, (long) i * chunkSize, Math.min(size, (long) (i + 1) * chunkSize)));
+		}
+		try {
+			if (parallel) {
+				pool.invoke(new RecursiveTask<Void>() {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected Void compute() {
+						invokeAll(counts);
+						return null;
+					}
+				});
+			} else {
+				for (QuoteCountTask count : counts) {
+					// invoke() esegue il task nel thread corrente
+					count.invoke();
+				}
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+
+		// 2. Da ogni punto nominale, con la parità nota, si avanza fino al primo a capo fuori dalle virgolette
+		List<Long> bounds = new ArrayList<>(blocks + 1);
+		bounds.add(0L);
+		long quotesBefore = 0;
+		for (int i = 1; i < blocks; i++) {
+			quotesBefore += counts.get(i - 1).join();
+			long boundary = nextRecordStart(channel, (long) i * chunkSize, (quotesBefore & 1) == 1, size);
+			if (boundary > bounds.get(bounds.size() - 1) && boundary < size) {
+				bounds.add(boundary);
+			}
+		}
+		bounds.add(size);
+
+		long[] result = new long[bounds.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = bounds.get(i);
+		}
+		return result;
+	}
+
+	// Primo byte dopo un a capo non racchiuso tra virgolette, a partire da position
+	private long nextRecordStart(FileChannel channel, long position, boolean inQuotes, long size) throws IOException {
+		long window = 64 * 1024;
+		while (position < size) {
+			long length = Math.min(window, size - position);
+			MappedByteBuffer data = map(channel, position, length);
+			for (int i = 0; i < length; i++) {
+				byte b = data.get(i);
+				if (b == '"') {
+					inQuotes = !inQuotes;
+				} else if (b == '\n' && !inQuotes) {
+					return position + i + 1;
+				}
+			}
+			position += length;
+			window = Math.min(window * 4, Integer.MAX_VALUE);
+		}
+		return size;
+	}
+
+	// Analizza i record del chunk [start, end) passando ciascuno all'handler
+	private long parseChunk(FileChannel channel, long start, long end, boolean skipFirst, RowHandler handler) throws IOException {
+		if (end <= start) {
+			return 0;
+		}
+		MappedByteBuffer data = map(channel, start, end - start);
+		CsvRow row = new CsvRow(charset);
+		int length = (int) (end - start);
+		int position = 0;
+		long rows = 0;
+		boolean skip = skipFirst;
+		while (position < length) {
+			int next = parseRecord(data, position, length, row, start, true);
+			if (row.size() > 0) {
+				if (skip) {
+					skip = false;
+				} else {
+					handler.onRow(row);
+					rows++;
+				}
+			}
+			position = next;
+		}
+		return rows;
+	}
+
+	// Analizza un record da position; restituisce l'inizio del successivo, -1 se il record
+	// non termina entro length e la fine del file non è stata raggiunta. Le righe vuote danno un record senza campi.
+	private int parseRecord(ByteBuffer data, int position, int length, CsvRow row, long baseOffset, boolean endOfFile) throws CsvFormatException {
+		row.reset(data, baseOffset, position);
+		if (position < length && (data.get(position) == '\n' || data.get(position) == '\r')) {
+			// riga vuota
+			return skipLineBreak(data, position, length);
+		}
+		while (true) {
+			if (position < length && data.get(position) == '"') {
+				// campo tra virgolette: termina con una virgoletta non raddoppiata
+				int start = position + 1;
+				int i = start;
+				boolean escaped = false;
+				while (true) {
+					if (i >= length) {
+						if (!endOfFile) {
+							return -1;
+						}
+						throw new CsvFormatException("Unterminated quoted field at offset " + (baseOffset + position));
+					}
+					if (data.get(i) == '"') {
+						if (i + 1 < length && data.get(i + 1) == '"') {
+							escaped = true;
+							i += 2;
+							continue;
+						}
+						break;
+					}
+					i++;
+				}
+				row.add(start, i, escaped);
+				position = i + 1;
+				// eventuali caratteri tra la virgoletta di chiusura e il separatore vengono ignorati
+				while (position < length && data.get(position) != separator && data.get(position) != '\n' && data.get(position) != '\r') {
+					position++;
+				}
+			} else {
+				int start = position;
+				while (position < length) {
+					byte b = data.get(position);
+					if (b == separator || b == '\n' || b == '\r') {
+						break;
+					}
+					position++;
+				}
+				row.add(start, position, false);
+			}
+
+			if (position >= length) {
+				return endOfFile ? length : -1;
+			}
+			if (data.get(position) == separator) {
+				position++;
+				continue;
+			}
+			return skipLineBreak(data, position, length);
+		}
+	}
+
+	private static int skipLineBreak(ByteBuffer data, int position, int length) {
+		if (data.get(position) == '\r' && position + 1 < length && data.get(position + 1) == '\n') {
+			return position + 2;
+		}
+		return position + 1;
+	}
+
+	/**
+	 * Malformed CSV input, e.g. a quoted field that is never closed.
+	 * @author @francescoceliento@github.com
+	 */
+	public static class CsvFormatException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		public CsvFormatException(String message) {
+			super(message);
+		}
+	}
+
+	private static MappedByteBuffer map(FileChannel channel, long position, long length) throws IOException {
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("CSV record or chunk larger than 2 GB at offset " + position);
+		}
+		return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+	}
+
+}
@@ -0,0 +1,232 @@
+package com.francescoceliento.text;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * View of a CSV record over the bytes of the mapped file. The same instance is reused for every
+ * record of a chunk, so it is valid only inside the RowHandler callback: values are decoded
+ * only when an accessor is called. Use toArray() to keep a copy of the record.
+ * @author @francescoceliento@github.com
+ */
+public final class CsvRow {
+
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	private final Charset charset;
+	private ByteBuffer data;
+	// Per ogni campo: inizio, fine (escluse le virgolette) e se contiene virgolette raddoppiate
+	private int[] starts = new int[16];
+	private int[] ends = new int[16];
+	private boolean[] escaped = new boolean[16];
+	private int count;
+	private long offset;
+
+	CsvRow(Charset charset) {
+		this.charset = charset;
+	}
+
+	void reset(ByteBuffer data, long baseOffset, long recordStart) {
+		this.data = data;
+		this.offset = baseOffset + recordStart;
+		this.count = 0;
+	}
+
+	void add(int start, int end, boolean hasEscapedQuotes) {
+		if (count == starts.length) {
+			starts = Arrays.copyOf(starts, count * 2);
+			ends = Arrays.copyOf(ends, count * 2);
+			escaped = Arrays.copyOf(escaped, count * 2);
+		}
+		starts[count] = start;
+		ends[count] = end;
+		escaped[count] = hasEscapedQuotes;
+		count++;
+	}
+
+	/**
+	 * Returns the number of fields of the record.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @return int
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * Returns the position of the record in the file, in bytes. It identifies the record
+	 * and gives the file order also when chunks are parsed in parallel.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @return long
+	 */
+	public long getOffset() {
+		return offset;
+	}
+
+	/**
+	 * Returns true if the field is empty.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param index
+	 * @return boolean
+	 */
+	public boolean isEmpty(int index) {
+		check(index);
+		return starts[index] == ends[index];
+	}
+
+	/**
+	 * Decodes the field as a String.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param index
+	 * @return String
+	 */
+	public String getString(int index) {
+		check(index);
+		int start = starts[index];
+		int length = ends[index] - start;
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = data.get(start + i);
+		}
+		String value = new String(bytes, charset);
+		return escaped[index] ? value.replace("\"\"", "\"") : value;
+	}
+
+	/**
+	 * Parses the field as an int.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param index
+	 * @return int
+	 * @throws NumberFormatException
+	 */
+	public int getInt(int index) {
+		long value = getLong(index);
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+			throw new NumberFormatException("Value out of int range in field " + index + ": " + value);
+		}
+		return (int) value;
+	}
+
+	/**
+	 * Parses the field as a long, reading the digits directly from the mapped bytes.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param index
+	 * @return long
+	 * @throws NumberFormatException
+	 */
+	public long getLong(int index) {
+		check(index);
+		int position = starts[index];
+		int end = ends[index];
+		if (position == end) {
+			throw new NumberFormatException("Empty field " + index);
+		}
+		boolean negative = false;
+		byte first = data.get(position);
+		if (first == '-' || first == '+') {
+			negative = first == '-';
+			if (++position == end) {
+				throw new NumberFormatException("Invalid number in field " + index + ": " + getString(index));
+			}
+		}
+		// accumulo negativo per coprire anche Long.MIN_VALUE
+		long value = 0;
+		for (; position < end; position++) {
+			int digit = data.get(position) - '0';
+			if (digit < 0 || digit > 9 || value < (Long.MIN_VALUE + digit) / 10) {
+				throw new NumberFormatException("Invalid number in field " + index + ": " + getString(index));
+			}
+			value = value * 10 - digit;
+		}
+		if (!negative) {
+			if (value == Long.MIN_VALUE) {
+				throw new NumberFormatException("Value out of long range in field " + index);
+			}
+			return -value;
+		}
+		return value;
+	}
+
+	/**
+	 * Parses the field as a double. Plain decimals with up to 15 significant digits are
+	 * converted directly from the bytes, other formats go through Double.parseDouble.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param index
+	 * @return double
+	 * @throws NumberFormatException
+	 */
+	public double getDouble(int index) {
+		check(index);
+		int position = starts[index];
+		int end = ends[index];
+		boolean negative = false;
+		if (position < end && (data.get(position) == '-' || data.get(position) == '+')) {
+			negative = data.get(position) == '-';
+			position++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int decimals = -1;
+		boolean simple = position < end;
+		for (; position < end; position++) {
+			byte b = data.get(position);
+			if (b == '.' && decimals < 0) {
+				decimals = 0;
+			} else if (b >= '0' && b <= '9' && digits < 15) {
+				mantissa = mantissa * 10 + (b - '0');
+				if (mantissa > 0) {
+					digits++;
+				}
+				if (decimals >= 0) {
+					decimals++;
+				}
+			} else {
+				simple = false;
+				break;
+			}
+		}
+		if (simple && decimals != 0 && decimals < POWERS_OF_TEN.length) {
+			// mantissa e potenza di 10 sono esatte: una sola divisione, arrotondata correttamente
+			double value = decimals > 0 ? mantissa / POWERS_OF_TEN[decimals] : mantissa;
+			return negative ? -value : value;
+		}
+		return Double.parseDouble(getString(index).trim());
+	}
+
+	/**
+	 * Copies the fields into a new array of strings.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @return String[]
+	 */
+	public String[] toArray() {
+		String[] values = new String[count];
+		for (int i = 0; i < count; i++) {
+			values[i] = getString(i);
+		}
+		return values;
+	}
+
+	@Override
+	public String toString() {
+		return Arrays.toString(toArray());
+	}
+
+	private void check(int index) {
+		if (index < 0 || index >= count) {
+			throw new IndexOutOfBoundsException("Field " + index + " of " + count + " at offset " + offset);
+		}
+	}
+
+}
@@ -0,0 +1,302 @@
+package com.francescoceliento.text;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Writes CSV rows directly to a Writer through a reusable buffer. Fields are quoted as in
+ * RFC 4180 only when they contain the separator, a quote or a line break. Numbers are written
+ * digit by digit into the buffer, without boxing nor temporary strings.
+ * Not thread-safe.
+ * @author @francescoceliento@github.com
+ */
+public class CsvWriter implements Closeable, Flushable {
+
+	public static final char DEFAULT_SEPARATOR = ',';
+	public static final String DEFAULT_LINE_ENDING = "\r\n";
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	// Cifre di Long.MIN_VALUE con il segno
+	private static final int MAX_LONG_CHARS = 20;
+
+	private final Writer out;
+	private final char separator;
+	private final char[] buffer = new char[BUFFER_SIZE];
+	private int position;
+	private String lineEnding = DEFAULT_LINE_ENDING;
+	private boolean firstField = true;
+
+	/**
+	 * Creates a writer with comma separator.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param out
+	 */
+	public CsvWriter(Writer out) {
+		this(out, DEFAULT_SEPARATOR);
+	}
+
+	/**
+	 * Creates a writer with the given separator.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param out
+	 * @param separator
+	 */
+	public CsvWriter(Writer out, char separator) {
+		if (out == null) {
+			throw new IllegalArgumentException("The writer cannot be null.");
+		}
+		if (separator == '"' || separator == '\r' || separator == '\n') {
+			throw new IllegalArgumentException("Invalid separator: " + separator);
+		}
+		this.out = out;
+		this.separator = separator;
+	}
+
+	/**
+	 * Creates a writer on a stream encoded with the given charset.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param out
+	 * @param charset
+	 * @param separator
+	 */
+	public CsvWriter(OutputStream out, Charset charset, char separator) {
+		this(new OutputStreamWriter(out, charset), separator);
+	}
+
+	/**
+	 * Sets the row terminator, CRLF by default as in RFC 4180.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param lineEnding
+	 */
+	public void setLineEnding(String lineEnding) {
+		if (lineEnding == null || lineEnding.isEmpty()) {
+			throw new IllegalArgumentException("The line ending cannot be empty.");
+		}
+		this.lineEnding = lineEnding;
+	}
+
+	public char getSeparator() {
+		return separator;
+	}
+
+	/**
+	 * Writes a text field, quoted only if needed. Null is written as an empty field.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param value
+	 * @return this writer
+	 * @throws IOException
+	 */
+	public CsvWriter field(CharSequence value) throws IOException {
+		startField();
+		if (value == null) {
+			return this;
+		}
+		int length = value.length();
+		if (!needsQuotes(value, separator)) {
+			for (int i = 0; i < length; ) {
+				if (position == buffer.length) {
+					drain();
+				}
+				int chunk = Math.min(length - i, buffer.length - position);
+				if (value instanceof String) {
+					((String) value).getChars(i, i + chunk, buffer, position);
+					position += chunk;
+					i += chunk;
+				} else {
+					for (int end = i + chunk; i < end; i++) {
+						buffer[position++] = value.charAt(i);
+					}
+				}
+			}
+			return this;
+		}
+		put('"');
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if (c == '"') {
+				put('"');
+			}
+			put(c);
+		}
+		put('"');
+		return this;
+	}
+
+	/**
+	 * Writes an int field.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param value
+	 * @return this writer
+	 * @throws IOException
+	 */
+	public CsvWriter field(int value) throws IOException {
+		return field((long) value);
+	}
+
+	/**
+	 * Writes a long field.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param value
+	 * @return this writer
+	 * @throws IOException
+	 */
+	public CsvWriter field(long value) throws IOException {
+		startField();
+		if (buffer.length - position < MAX_LONG_CHARS) {
+			drain();
+		}
+		position = writeLong(value, buffer, position);
+		return this;
+	}
+
+	/**
+	 * Writes a double field with the same text as Double.toString. Integral values are
+	 * written without temporary strings, the others go through Double.toString.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param value
+	 * @return this writer
+	 * @throws IOException
+	 */
+	public CsvWriter field(double value) throws IOException {
+		// Double.toString usa la notazione esponenziale da 10^7 in su
+		if (value == Math.rint(value) && Math.abs(value) < 1e7 && !(value == 0 && 1 / value < 0)) {
+			field((long) value);
+			put('.');
+			put('0');
+			return this;
+		}
+		startField();
+		String text = Double.toString(value);
+		for (int i = 0; i < text.length(); i++) {
+			put(text.charAt(i));
+		}
+		return this;
+	}
+
+	/**
+	 * Writes a boolean field as "true" or "false".
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param value
+	 * @return this writer
+	 * @throws IOException
+	 */
+	public CsvWriter field(boolean value) throws IOException {
+		return field(value ? "true" : "false");
+	}
+
+	/**
+	 * Terminates the current row.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @return this writer
+	 * @throws IOException
+	 */
+	public CsvWriter endRow() throws IOException {
+		for (int i = 0; i < lineEnding.length(); i++) {
+			put(lineEnding.charAt(i));
+		}
+		firstField = true;
+		return this;
+	}
+
+	/**
+	 * Writes a whole row of text fields.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param fields
+	 * @return this writer
+	 * @throws IOException
+	 */
+	public CsvWriter row(CharSequence... fields) throws IOException {
+		for (CharSequence value : fields) {
+			field(value);
+		}
+		return endRow();
+	}
+
+	@Override
+	public void flush() throws IOException {
+		drain();
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			drain();
+		} finally {
+			out.close();
+		}
+	}
+
+	// Separatore prima di ogni campo tranne il primo della riga
+	private void startField() throws IOException {
+		if (firstField) {
+			firstField = false;
+		} else {
+			put(separator);
+		}
+	}
+
+	private void put(char c) throws IOException {
+		if (position == buffer.length) {
+			drain();
+		}
+		buffer[position++] = c;
+	}
+
+	private void drain() throws IOException {
+		if (position > 0) {
+			out.write(buffer, 0, position);
+			position = 0;
+		}
+	}
+
+	// Scrive le cifre di value da offset e restituisce la posizione successiva
+	static int writeLong(long value, char[] target, int offset) {
+		if (value == Long.MIN_VALUE) {
+			String text = "-9223372036854775808";
+			text.getChars(0, text.length(), target, offset);
+			return offset + text.length();
+		}
+		if (value < 0) {
+			target[offset++] = '-';
+			value = -value;
+		}
+		int digits = 1;
+		for (long limit = 10; digits < 19 && value >= limit; limit *= 10) {
+			digits++;
+		}
+		for (int i = offset + digits - 1; i >= offset; i--) {
+			target[i] = (char) ('0' + value % 10);
+			value /= 10;
+		}
+		return offset + digits;
+	}
+
+	// RFC 4180: virgolette solo se il campo contiene il separatore, una virgoletta o un a capo
+	static boolean needsQuotes(CharSequence value, char separator) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == separator || c == '"' || c == '\n' || c == '\r') {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -1,36 +1,358 @@
 package com.francescoceliento.validator;
 
+import java.io.IOException;
+import java.io.InputStream;
+
 /**
  * Manages JSON format validations.
  * @author @francescoceliento@github.com
  *
  */
 public class JsonValidator {
-	
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[BUFFER_SIZE];
+		}
+	};
+
 	/**
 	 * Checks that the JSON is correct.
 	 * @author @francescoceliento@github.com
-	 * 
+	 *
 	 * @param json
 	 * @return
 	 */
 	public static boolean isValid(String json) {
-	    // Regex per verificare la validità del JSON
-	    String regex = "(?(DEFINE)\n" + 
-	    		"    (?<number> -? (?: 0 | [1-9]\\d* ) (?:\\.\\d+)? (?:[eE][+-]?\\d+)? )\n" + 
-	    		"    (?<boolean> true | false | null )\n" + 
-	    		"    (?<string> \" (?: [^\"\\\\\\x00-\\x1f] | \\\\ [[\"\\\\/bfnrt] | \\\\ u [0-9A-Fa-f]{4} )* \" )\n" + 
-	    		"    (?<pair> (?&string) \\s* : \\s* (?&value) )\n" + 
-	    		"    (?<array> \\[ \\s* (?: (?&value) \\s* (?:, \\s* (?&value) \\s*)* )? \\] )\n" + 
-	    		"    (?<object> \\{ \\s* (?: (?&pair) \\s* (?:, \\s* (?&pair) \\s*)* )? \\} )\n" + 
-	    		"    (?<value> (?&number) | (?&boolean) | (?&string) | (?&array) | (?&object) )\n" + 
-	    		")";
-
-	    try {
-	    	return json != null && json.matches(regex);	    	
-	    } catch (Exception e) {
-	    	return false;
-	    }
+		return json != null && getErrorOffset(json) == -1;
+	}
+
+	/**
+	 * Validates the JSON in a single linear pass and returns the offset of the first invalid
+	 * character, the length of the text if it ends prematurely, or -1 if the JSON is correct.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param json
+	 * @return int
+	 */
+	public static int getErrorOffset(CharSequence json) {
+		if (json == null) {
+			return 0;
+		}
+		Scanner scanner = new Scanner();
+		int length = json.length();
+		for (int i = 0; i < length; i++) {
+			if (!scanner.accept(json.charAt(i))) {
+				return i;
+			}
+		}
+		return scanner.isComplete() ? -1 : length;
+	}
+
+	/**
+	 * Checks that the UTF-8 JSON read from the stream is correct, without buffering the document.
+	 * The stream is read to the end or to the first error but is not closed.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param inputStream
+	 * @return boolean
+	 * @throws IOException
+	 */
+	public static boolean isValid(InputStream inputStream) throws IOException {
+		return getErrorOffset(inputStream) == -1;
+	}
+
+	/**
+	 * Validates the UTF-8 JSON read from the stream and returns the byte offset of the first
+	 * error, or -1 if the JSON is correct. The stream is not closed.
+	 * @author @francescoceliento@github.com
+	 *
+	 * @param inputStream
+	 * @return long
+	 * @throws IOException
+	 */
+	public static long getErrorOffset(InputStream inputStream) throws IOException {
+		if (inputStream == null) {
+			return 0;
+		}
+		Scanner scanner = new Scanner();
+		byte[] buffer = BUFFER.get();
+		long offset = 0;
+		int read;
+		while ((read = inputStream.read(buffer)) != -1) {
+			for (int i = 0; i < read; i++) {
+				// I byte non ASCII sono ammessi solo all'interno delle stringhe
+				if (!scanner.accept(buffer[i] & 0xFF)) {
+					return offset + i;
+				}
+			}
+			offset += read;
+		}
+		return scanner.isComplete() ? -1 : offset;
+	}
+
+	// Automa a pila: un carattere alla volta, senza ricorsione e senza allocazioni per carattere
+	private static final class Scanner {
+
+		private static final int VALUE = 0;
+		private static final int ARRAY_FIRST = 1;
+		private static final int OBJECT_FIRST = 2;
+		private static final int KEY = 3;
+		private static final int COLON = 4;
+		private static final int AFTER_VALUE = 5;
+		private static final int STRING = 6;
+		private static final int ESCAPE = 7;
+		private static final int UNICODE = 8;
+		private static final int MINUS = 9;
+		private static final int ZERO = 10;
+		private static final int INTEGER = 11;
+		private static final int DOT = 12;
+		private static final int FRACTION = 13;
+		private static final int EXPONENT = 14;
+		private static final int EXPONENT_SIGN = 15;
+		private static final int EXPONENT_DIGITS = 16;
+		private static final int LITERAL = 17;
+
+		private int state = VALUE;
+		private boolean inKey;
+		private int counter;
+		private String literal;
+
+		// Pila dei contenitori come bit (1 = oggetto): i primi 64 livelli in un long
+		private int depth;
+		private long stack;
+		private long[] deepStack;
+
+		boolean accept(int c) {
+			while (true) {
+				switch (state) {
+					case VALUE:
+						return isWhitespace(c) || startValue(c);
+					case ARRAY_FIRST:
+						if (isWhitespace(c)) return true;
+						return c == ']' ? close(false) : startValue(c);
+					case OBJECT_FIRST:
+						if (isWhitespace(c)) return true;
+						if (c == '}') return close(true);
+						return startKey(c);
+					case KEY:
+						return isWhitespace(c) || startKey(c);
+					case COLON:
+						if (isWhitespace(c)) return true;
+						if (c != ':') return false;
+						state = VALUE;
+						return true;
+					case AFTER_VALUE:
+						if (isWhitespace(c)) return true;
+						if (depth == 0) return false;
+						if (c == ',') {
+							state = isObject() ? KEY : VALUE;
+							return true;
+						}
+						if (c == '}') return close(true);
+						if (c == ']') return close(false);
+						return false;
+					case STRING:
+						if (c == '"') {
+							state = inKey ? COLON : AFTER_VALUE;
+							return true;
+						}
+						if (c == '\\') {
+							state = ESCAPE;
+							return true;
+						}
+						return c >= 0x20;
+					case ESCAPE:
+						switch (c) {
+							case '"': case '\\': case '/': case 'b': case 'f': case 'n': case 'r': case 't':
+								state = STRING;
+								return true;
+							case 'u':
+								state = UNICODE;
+								counter = 0;
+								return true;
+							default:
+								return false;
+						}
+					case UNICODE:
+						if (!isHexDigit(c)) return false;
+						if (++counter == 4) state = STRING;
+						return true;
+					case MINUS:
+						if (c == '0') {
+							state = ZERO;
+							return true;
+						}
+						if (c >= '1' && c <= '9') {
+							state = INTEGER;
+							return true;
+						}
+						return false;
+					case ZERO:
+						if (c == '.') {
+							state = DOT;
+							return true;
+						}
+						if (c == 'e' || c == 'E') {
+							state = EXPONENT;
+							return true;
+						}
+						state = AFTER_VALUE;
+						continue;
+					case INTEGER:
+						if (c >= '0' && c <= '9') return true;
+						if (c == '.') {
+							state = DOT;
+							return true;
+						}
+						if (c == 'e' || c == 'E') {
+							state = EXPONENT;
+							return true;
+						}
+						state = AFTER_VALUE;
+						continue;
+					case DOT:
+						if (c < '0' || c > '9') return false;
+						state = FRACTION;
+						return true;
+					case FRACTION:
+						if (c >= '0' && c <= '9') return true;
+						if (c == 'e' || c == 'E') {
+							state = EXPONENT;
+							return true;
+						}
+						state = AFTER_VALUE;
+						continue;
+					case EXPONENT:
+						if (c == '+' || c == '-') {
+							state = EXPONENT_SIGN;
+							return true;
+						}
+						if (c < '0' || c > '9') return false;
+						state = EXPONENT_DIGITS;
+						return true;
+					case EXPONENT_SIGN:
+						if (c < '0' || c > '9') return false;
+						state = EXPONENT_DIGITS;
+						return true;
+					case EXPONENT_DIGITS:
+						if (c >= '0' && c <= '9') return true;
+						state = AFTER_VALUE;
+						continue;
+					case LITERAL:
+						if (c != literal.charAt(counter)) return false;
+						if (++counter == literal.length()) state = AFTER_VALUE;
+						return true;
+					default:
+						return false;
+				}
+			}
+		}
+
+		boolean isComplete() {
+			if (depth != 0) {
+				return false;
+			}
+			return state == AFTER_VALUE || state == ZERO || state == INTEGER
+					|| state == FRACTION || state == EXPONENT_DIGITS;
+		}
+
+		private boolean startValue(int c) {
+			switch (c) {
+				case '{':
+					push(true);
+					state = OBJECT_FIRST;
+					return true;
+				case '[':
+					push(false);
+					state = ARRAY_FIRST;
+					return true;
+				case '"':
+					inKey = false;
+					state = STRING;
+					return true;
+				case '-':
+					state = MINUS;
+					return true;
+				case '0':
+					state = ZERO;
+					return true;
+				case 't':
+					return startLiteral("true");
+				case 'f':
+					return startLiteral("false");
+				case 'n':
+					return startLiteral("null");
+				default:
+					if (c >= '1' && c <= '9') {
+						state = INTEGER;
+						return true;
+					}
+					return false;
+			}
+		}
+
+		private boolean startKey(int c) {
+			if (c != '"') {
+				return false;
+			}
+			inKey = true;
+			state = STRING;
+			return true;
+		}
+
+		private boolean startLiteral(String value) {
+			literal = value;
+			counter = 1;
+			state = LITERAL;
+			return true;
+		}
+
+		private void push(boolean object) {
+			if (depth < 64) {
+				stack = object ? stack | (1L << depth) : stack & ~(1L << depth);
+			} else {
+				int index = (depth - 64) >>> 6;
+				if (deepStack == null) {
+					deepStack = new long[4];
+				} else if (index == deepStack.length) {
+					long[] grown = new long[deepStack.length * 2];
+					System.arraycopy(deepStack, 0, grown, 0, deepStack.length);
+					deepStack = grown;
+				}
+				long bit = 1L << ((depth - 64) & 63);
+				deepStack[index] = object ? deepStack[index] | bit : deepStack[index] & ~bit;
+			}
+			depth++;
+		}
+
+		private boolean isObject() {
+			int top = depth - 1;
+			if (top < 64) {
+				return (stack & (1L << top)) != 0;
+			}
+			return (deepStack[(top - 64) >>> 6] & (1L << ((top - 64) & 63))) != 0;
+		}
+
+		private boolean close(boolean object) {
+			if (depth == 0 || isObject() != object) {
+				return false;
+			}
+			depth--;
+			state = AFTER_VALUE;
+			return true;
+		}
+
+		private static boolean isWhitespace(int c) {
+			return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+		}
+
+		private static boolean isHexDigit(int c) {
+			return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+		}
 	}
 
 }